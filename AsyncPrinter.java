@@ -0,0 +1,166 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/** Printer of simulation output on a thread of its own.
+ *
+ *  Each time the outputs are to be printed, the simulation copies them
+ *  into a free snapshot of a ring buffer and goes on; this thread turns
+ *  the snapshots into text and writes it to the standard output in large
+ *  blocks.  The ring has just one producer and one consumer, so it needs
+ *  no locks, only two counters, each written by just one of the threads.
+ *
+ *  When the ring is full, the simulation either waits for room or drops
+ *  the snapshot, in which case the next row printed shows the changes
+ *  since the last row that was printed.
+ *
+ *  @author Ryan Boehm
+ *  @see TernaryLogic
+ */
+final class AsyncPrinter extends Thread {
+	/** the most memory used by snapshots */
+	private static final long RING_BYTES = 1L << 26;
+
+	/** the size of the block of text written at once */
+	private static final int BLOCK = 1 << 20;
+
+	/** the text of each value change, indexed by old and new value */
+	private final byte[][][] text;
+
+	private final byte[][] ring;	// the snapshots, a power of two of them
+	private final int mask;		// ring.length - 1
+	private final boolean drop;	// drop snapshots when the ring is full?
+
+	private volatile long head = 0;	// snapshots taken, by this thread
+	private volatile long tail = 0;	// snapshots given, by the simulation
+	private volatile boolean done = false;	// set when the last is given
+	private volatile boolean idle = false;	// set while this thread waits
+
+	// statistics, kept by the simulation thread
+	private long dropped = 0;	// snapshots dropped for lack of room
+	private long stalled = 0;	// nanoseconds spent waiting for room
+	private long occupancy = 0;	// total snapshots waiting, see publish
+	private long maxOccupancy = 0;	// most snapshots waiting
+
+	/** Make a printer; it starts printing when started.
+	 *  @param gates	the number of gates in each snapshot.
+	 *  @param drop	if true, drop snapshots when the ring is full,
+	 *  otherwise wait until there is room.
+	 *  @param values	the text of each value change, indexed by old
+	 *  and new value.
+	 */
+	AsyncPrinter( int gates, boolean drop, String[][] values ) {
+		super( "printer" );
+		this.drop = drop;
+
+		int n = 2;
+		while ((n < 1024) && ((long)n * 2 * gates <= RING_BYTES)) n = n * 2;
+		ring = new byte[n][gates];
+		mask = n - 1;
+
+		text = new byte[values.length][][];
+		for (int i = 0; i < values.length; i++) {
+			text[i] = new byte[values[i].length][];
+			for (int j = 0; j < values[i].length; j++) {
+				text[i][j] = (" " + values[i][j]).getBytes(
+					java.nio.charset.StandardCharsets.ISO_8859_1
+				);
+			}
+		}
+	}
+
+	/** Give a snapshot of the outputs to be printed.
+	 *  Call this only from the simulation thread.
+	 *  @param current	the output of each gate; those printed come
+	 *  first, as many as there are in a snapshot.
+	 */
+	void publish( byte[] current ) {
+		final long t = tail;
+		if (t - head > mask) { // full
+			if (drop) {
+				dropped = dropped + 1;
+				return;
+			}
+			final long start = System.nanoTime();
+			while (t - head > mask) LockSupport.parkNanos( 10000 );
+			stalled = stalled + (System.nanoTime() - start);
+		}
+		final byte[] snapshot = ring[(int)t & mask];
+		System.arraycopy( current, 0, snapshot, 0, snapshot.length );
+		tail = t + 1;
+
+		final long waiting = t + 1 - head;
+		occupancy = occupancy + waiting;
+		if (waiting > maxOccupancy) maxOccupancy = waiting;
+		if (idle) LockSupport.unpark( this );
+	}
+
+	/** Print everything given so far, and stop.
+	 *  Call this only from the simulation thread.
+	 */
+	void finish() {
+		done = true;
+		LockSupport.unpark( this );
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Errors.fatal( "Interrupted while printing" );
+		}
+	}
+
+	/** Describe how well the printer has kept up.
+	 *  @return	the text of the report.
+	 */
+	String statistics() {
+		return(
+			tail + " rows, " + dropped + " dropped; " +
+			ring.length + " snapshots, at most " + maxOccupancy +
+			" and on average " +
+			(tail == 0 ? 0.0 : (double)occupancy / tail) +
+			" waiting; stalled " + stalled / 1000000 + " ms"
+		);
+	}
+
+	public void run() {
+		final FileOutputStream out
+			= new FileOutputStream( FileDescriptor.out );
+		final byte[] block = new byte[BLOCK];
+		int used = 0;
+
+		// each gate's previously printed output, initially unknown
+		final byte[] previous = new byte[ring[0].length];
+		java.util.Arrays.fill( previous, (byte)1 );
+
+		try {
+			for (;;) {
+				final long h = head;
+				if (h == tail) { // nothing to print, so wait
+					if (done && (h == tail)) break;
+					idle = true;
+					if (h == tail) LockSupport.park( this );
+					idle = false;
+					continue;
+				}
+
+				final byte[] current = ring[(int)h & mask];
+				for (int g = 0; g < current.length; g++) {
+					final byte[] s = text[previous[g]][current[g]];
+					if (used + s.length + 1 > block.length) {
+						out.write( block, 0, used );
+						used = 0;
+					}
+					System.arraycopy( s, 0, block, used, s.length );
+					used = used + s.length;
+					previous[g] = current[g];
+				}
+				block[used] = '\n';
+				used = used + 1;
+				head = h + 1;
+			}
+			out.write( block, 0, used );
+		} catch (IOException e) {
+			Errors.fatal( "Could not write output" );
+		}
+	}
+}
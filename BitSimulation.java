@@ -0,0 +1,339 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/** Bit parallel simulation of up to 64 variants of a circuit at once.
+ *
+ *  Each lane of a 64 bit word is one variant, differing from the others
+ *  in the initial values of the gates.  A logic value is held in two
+ *  words, bitplanes that have a bit set in each lane where the value is
+ *  true, or where it is false; where neither bit is set, the value is
+ *  unknown.  Every gate type then takes a few bitwise operations:
+ *  <pre>
+ *  min:       T = aT &amp; bT     F = aF | bF
+ *  max:       T = aT | bT     F = aF &amp; bF
+ *  neg:       T = aF          F = aT
+ *  istrue:    T = aT          F = ~aT
+ *  isfalse:   T = aF          F = ~aF
+ *  isunknown: T = ~(aT | aF)  F = aT | aF
+ *  </pre>
+ *
+ *  Delays are the same in every lane, so each event here carries the new
+ *  values of all lanes.  A gate is evaluated once, after all its inputs
+ *  that change at some time have changed, so zero-width glitches that
+ *  {@link Simulation} would schedule are never seen here; at each time,
+ *  once every change due then is done, each lane holds exactly what the
+ *  same variant simulated on its own would hold.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ *  @see TernaryLogic
+ */
+final class BitSimulation {
+	private BitSimulation() {} // no instances
+
+	/** the most lanes there can be */
+	static final int LANES = 64;
+
+	// the kinds of events, as well as Simulation.OBJECT
+	private static final int OUTPUT = 1; // target is a gate
+	private static final int INPUT = 2;  // target is a wire
+	private static final int EVAL = 3;   // target is a gate
+
+	// ***** the state of the circuit, set up by start *****
+
+	/** the simulation whose queue and object events are used */
+	private static Simulation sim;
+
+	private static Netlist net;
+
+	/** the number of lanes in use */
+	static int lanes;
+
+	/** the lanes in use, as a mask */
+	private static long used;
+
+	// indexed by gate
+	private static long[] outT;	// the most recently computed output
+	private static long[] outF;
+	private static boolean[] dirty;	// is an evaluation pending now?
+
+	/** the current output of each gate, for printing */
+	static long[] curT;
+	static long[] curF;
+
+	// the wires into each gate, in compressed sparse row form
+	private static int[] fanin;	// first of each gate's, and one more
+	private static int[] faninWire;	// the wires
+
+	// indexed by wire
+	private static long[] wireT;	// the value at the far end
+	private static long[] wireF;
+
+	// values carried by pending events, indexed by the event's newv
+	private static long[] valueT = new long[64];
+	private static long[] valueF = new long[64];
+	private static int[] freeValues = new int[64];
+	private static int freeCount = 0;
+	private static int valueCount = 0;
+
+	/** Read the initial values of each lane from a file.
+	 *  Each line names a gate and then gives its initial value in each
+	 *  lane as one of 0, x or 1, for false, unknown or true, like
+	 *  <code>CLOCK 01x1</code>.
+	 *  Lanes not given for a gate start out unknown.
+	 *  As in circuit files, lines may end with -- comments.
+	 *  @param f	the file.
+	 *  @param n	the circuit.
+	 *  @return	initial[lane][gate], the initial values.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	static byte[][] readLanes( File f, Netlist n ) throws IOException {
+		final byte[][] initial = new byte[LANES][n.gateCount];
+		for ( byte[] lane: initial ) java.util.Arrays.fill( lane, (byte)1 );
+		int most = 1;
+
+		// look gates up in the circuit itself, which may have come from
+		// a cache without any gate objects
+		final java.util.HashMap <String, Integer> gates
+			= new java.util.HashMap <String, Integer> ();
+		for (int g = 0; g < n.gateCount; g++) gates.put( n.name( g ), g );
+
+		try (BufferedReader r = new BufferedReader( new FileReader( f ) )) {
+			int line = 0;
+			for (String s = r.readLine(); s != null; s = r.readLine()) {
+				line = line + 1;
+				final int comment = s.indexOf( "--" );
+				if (comment >= 0) s = s.substring( 0, comment );
+				final String[] w = s.trim().split( "\\s+" );
+				if (w[0].isEmpty()) continue;
+
+				final Integer g = gates.get( w[0] );
+				if (g == null) {
+					Errors.warn( line, "Gate '" + w[0] + "' undefined." );
+					continue;
+				}
+				if (w.length != 2) {
+					Errors.warn( line, "Expected one value per lane." );
+					continue;
+				}
+				if (w[1].length() > LANES) {
+					Errors.warn( line, "More than " + LANES + " lanes." );
+				}
+				for (int k = 0; k < Math.min( w[1].length(), LANES ); k++) {
+					final int v = "0x1".indexOf( w[1].charAt( k ) );
+					if (v < 0) {
+						Errors.warn(
+							line, "'" + w[1].charAt( k ) +
+							"' is not 0, x or 1."
+						);
+						break;
+					}
+					initial[k][g] = (byte)v;
+					most = Math.max( most, k + 1 );
+				}
+			}
+		}
+		return java.util.Arrays.copyOf( initial, most );
+	}
+
+	/** Get a free entry for the values carried by an event.
+	 *  @param t	the lanes that are true.
+	 *  @param f	the lanes that are false.
+	 *  @return	the index of the entry.
+	 */
+	private static int value( long t, long f ) {
+		final int i;
+		if (freeCount > 0) {
+			freeCount = freeCount - 1;
+			i = freeValues[freeCount];
+		} else {
+			if (valueCount == valueT.length) {
+				final int n = valueCount * 2;
+				valueT = java.util.Arrays.copyOf( valueT, n );
+				valueF = java.util.Arrays.copyOf( valueF, n );
+				freeValues = java.util.Arrays.copyOf( freeValues, n );
+			}
+			i = valueCount;
+			valueCount = valueCount + 1;
+		}
+		valueT[i] = t;
+		valueF[i] = f;
+		return i;
+	}
+
+	/** Release the entry of an event that has happened.
+	 *  @param i	the index of the entry.
+	 */
+	private static void release( int i ) {
+		freeValues[freeCount] = i;
+		freeCount = freeCount + 1;
+	}
+
+	/** Set up the state of a circuit and schedule its initial events.
+	 *  Each gate starts out with its initial value in each lane, as do
+	 *  the wires leaving it; gates whose inputs call for some other
+	 *  value change after their delay.  If all the initial values are
+	 *  unknown, this starts just as {@link Simulation#start} does.
+	 *  @param s	a simulation, not started, to take the queue and object
+	 *  events from.
+	 *  @param n	the compiled circuit.
+	 *  @param initial	initial[lane][gate], the initial values.
+	 */
+	static void start( Simulation s, Netlist n, byte[][] initial ) {
+		if (n.hasTables()) Errors.fatal( "-lanes cannot simulate table gates" );
+		sim = s;
+		net = n;
+		lanes = initial.length;
+		used = (lanes == LANES) ? -1L : (1L << lanes) - 1;
+
+		outT = new long[n.gateCount];
+		outF = new long[n.gateCount];
+		curT = new long[n.gateCount];
+		curF = new long[n.gateCount];
+		dirty = new boolean[n.gateCount];
+		for (int k = 0; k < lanes; k++) {
+			for (int g = 0; g < n.gateCount; g++) {
+				if (initial[k][g] == 2) outT[g] |= 1L << k;
+				if (initial[k][g] == 0) outF[g] |= 1L << k;
+			}
+		}
+		System.arraycopy( outT, 0, curT, 0, n.gateCount );
+		System.arraycopy( outF, 0, curF, 0, n.gateCount );
+
+		// turn the fanout of each gate around
+		fanin = new int[n.gateCount + 1];
+		faninWire = new int[n.wireCount];
+		wireT = new long[n.wireCount];
+		wireF = new long[n.wireCount];
+		for (int e = 0; e < n.wireCount; e++) fanin[n.wireDst[e] + 1]++;
+		for (int g = 0; g < n.gateCount; g++) fanin[g + 1] += fanin[g];
+		final int[] next = java.util.Arrays.copyOf( fanin, n.gateCount );
+		for (int g = 0; g < n.gateCount; g++) {
+			for (int e = n.fanout[g]; e < n.fanout[g + 1]; e++) {
+				faninWire[next[n.wireDst[e]]++] = e;
+				wireT[e] = outT[g];
+				wireF[e] = outF[g];
+			}
+		}
+
+		for (int g = 0; g < n.gateCount; g++) evaluate( 0, g );
+	}
+
+	/** Evaluate a gate and schedule any change of output.
+	 *  @param time	the time at which its inputs changed.
+	 *  @param g	the gate.
+	 */
+	private static void evaluate( long time, int g ) {
+		final int first = fanin[g];
+		final int last = fanin[g + 1];
+		long t;
+		long f;
+		switch (net.type[g]) {
+		case Netlist.INPUT: // keeps its initial value
+			return;
+		case Netlist.MIN:
+			if (first == last) return; // no inputs, so it never changes
+			t = -1L;
+			f = 0;
+			for (int i = first; i < last; i++) {
+				t = t & wireT[faninWire[i]];
+				f = f | wireF[faninWire[i]];
+			}
+			break;
+		case Netlist.MAX:
+			if (first == last) return;
+			t = 0;
+			f = -1L;
+			for (int i = first; i < last; i++) {
+				t = t | wireT[faninWire[i]];
+				f = f & wireF[faninWire[i]];
+			}
+			break;
+		case Netlist.NEG:
+			t = wireF[faninWire[first]];
+			f = wireT[faninWire[first]];
+			break;
+		case Netlist.ISFALSE:
+			t = wireF[faninWire[first]];
+			f = ~t;
+			break;
+		case Netlist.ISTRUE:
+			t = wireT[faninWire[first]];
+			f = ~t;
+			break;
+		default: // ISUNKNOWN
+			f = wireT[faninWire[first]] | wireF[faninWire[first]];
+			t = ~f;
+		}
+		t = t & used;
+		f = f & used;
+
+		if ((t != outT[g]) || (f != outF[g])) {
+			sim.eventSet.add(
+				time + net.delay[g], OUTPUT, g, 0, value( t, f )
+			);
+			outT[g] = t;
+			outF[g] = f;
+		}
+	}
+
+	/** Run the simulation; this is used in place of
+	 *  {@link Simulation#run} and takes object events from the same
+	 *  queue.
+	 */
+	static void run() {
+		final EventQueue q = sim.eventSet;
+		while (!q.isEmpty()) {
+			q.remove();
+			switch (q.kind) {
+			case OUTPUT: { // the change leaves the gate
+				final int g = q.target;
+				final long t = valueT[q.newv];
+				final long f = valueF[q.newv];
+				release( q.newv );
+				for (int e = net.fanout[g]; e < net.fanout[g + 1]; e++) {
+					q.add(
+						q.time + net.wireDelay[e],
+						INPUT, e, 0, value( t, f )
+					);
+				}
+				curT[g] = t;
+				curF[g] = f;
+				break;
+			}
+			case INPUT: { // the change reaches the far end of a wire
+				final int e = q.target;
+				wireT[e] = valueT[q.newv];
+				wireF[e] = valueF[q.newv];
+				release( q.newv );
+				final int g = net.wireDst[e];
+				if (!dirty[g]) {
+					dirty[g] = true;
+					q.add( q.time, EVAL, g, 0, 0 );
+				}
+				break;
+			}
+			case EVAL: // after the inputs that change now have changed
+				dirty[q.target] = false;
+				evaluate( q.time, q.target );
+				break;
+			default: // OBJECT
+				sim.trigger( q.target );
+				if (sim.stopped) return;
+			}
+		}
+	}
+
+	/** Get the current output of a gate in one lane.
+	 *  @param g	the gate.
+	 *  @param k	the lane.
+	 *  @return	the logic value.
+	 */
+	static int current( int g, int k ) {
+		if (((curT[g] >>> k) & 1) != 0) return 2;
+		if (((curF[g] >>> k) & 1) != 0) return 0;
+		return 1;
+	}
+}
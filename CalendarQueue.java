@@ -0,0 +1,183 @@
+import java.util.Arrays;
+
+/** Calendar queue of pending simulation events.
+ *
+ *  Time is divided into days of a fixed width, and the days into years
+ *  of as many days as there are buckets; each bucket holds the events of
+ *  one day of every year, kept in order in a doubly linked list.  When
+ *  the width suits the delays of the circuit, nearly all pending events
+ *  fall within one year, new events go at or near the end of their
+ *  bucket, and adding and removing events takes constant time on average.
+ *
+ *  Events with equal times are taken in the order they were added, which
+ *  is not always the order {@link EventHeap} takes them in, so at such
+ *  ties the output can differ from that with the heap.
+ *
+ *  @author Ryan Boehm
+ *  @see EventHeap
+ *  @see Simulation
+ */
+final class CalendarQueue extends EventQueue {
+	private final long width;	// the ticks in a day
+	private final int mask;		// the number of buckets, less one
+
+	private final int head[];	// first slot in each bucket, or -1
+	private final int tail[];	// last slot in each bucket, or -1
+
+	// indexed by slot
+	private long days[] = new long[64];	// the day of each event
+	private int next[] = new int[64];	// next slot in the bucket, or -1
+	private int prev[] = new int[64];	// previous slot, or -1
+
+	private long today = 0;		// no event is due before this day
+
+	/** Make an empty calendar.
+	 *  @param w	the width of a day, a positive number of ticks.
+	 *  @param buckets	the number of buckets, a power of two.
+	 */
+	CalendarQueue( long w, int buckets ) {
+		width = w;
+		mask = buckets - 1;
+		head = new int[buckets];
+		tail = new int[buckets];
+		Arrays.fill( head, -1 );
+		Arrays.fill( tail, -1 );
+	}
+
+	/** the most buckets forDelays will use */
+	private static final int MAX_BUCKETS = 1 << 16;
+
+	/** Make a calendar suited to the delays of a circuit.
+	 *  @param n	the circuit.
+	 *  @return	the new queue.
+	 */
+	static CalendarQueue forCircuit( Netlist n ) {
+		return forDelays( n.delay, n.wireDelay );
+	}
+
+	/** Make a calendar suited to some gate and wire delays.
+	 *  The width of a day is the shortest delay that is at all common,
+	 *  ignoring the rarest few percent of the delays, and a year is long
+	 *  enough that a change passing through a gate and its slowest wire
+	 *  stays within it.
+	 *  @param gate	the delays of the gates.
+	 *  @param wire	the delays of the wires.
+	 *  @return	the new queue.
+	 */
+	static CalendarQueue forDelays( long[] gate, long[] wire ) {
+		// the histogram of delays is just the delays in order
+		final long[] d = new long[gate.length + wire.length];
+		System.arraycopy( gate, 0, d, 0, gate.length );
+		System.arraycopy( wire, 0, d, gate.length, wire.length );
+		Arrays.sort( d );
+
+		int p = 0; // the first positive delay
+		while ((p < d.length) && (d[p] <= 0)) p++;
+		if (p == d.length) return new CalendarQueue( 1, 16 );
+
+		long maxGate = 0;
+		for ( long x: gate ) maxGate = Math.max( maxGate, x );
+		long maxWire = 0;
+		for ( long x: wire ) maxWire = Math.max( maxWire, x );
+		final double horizon = (double)maxGate + maxWire;
+
+		long w = d[p + (d.length - p) / 32];
+		if (horizon / w > MAX_BUCKETS / 2) {
+			w = (long)Math.ceil( horizon / (MAX_BUCKETS / 2) );
+		}
+		int buckets = 16;
+		while (buckets < 2 * (horizon / w + 1)) buckets = buckets * 2;
+		return new CalendarQueue( w, buckets );
+	}
+
+	/** Which day is a time in?
+	 *  @param t	the time.
+	 *  @return	the day.
+	 */
+	private long day( long t ) {
+		return t / width;
+	}
+
+	int first() {
+		// look through the year starting today
+		for (int i = 0; i <= mask; i++) {
+			final int s = head[(int)today & mask];
+			if ((s >= 0) && (days[s] == today)) return s;
+			today = today + 1;
+		}
+
+		// nothing this year, so skip ahead to the earliest event
+		int best = -1;
+		for ( int s: head ) {
+			if ((s >= 0) && ((best < 0) || before( s, best ))) best = s;
+		}
+		today = days[best];
+		return best;
+	}
+
+	void insert( int s ) {
+		final long d = day( times[s] );
+		days[s] = d;
+		if (d < today) today = d;
+		final int b = (int)d & mask;
+
+		// search from the end, where new events usually go
+		int p = tail[b];
+		while ((p >= 0) && before( s, p )) p = prev[p];
+		prev[s] = p;
+		if (p < 0) {
+			next[s] = head[b];
+			head[b] = s;
+		} else {
+			next[s] = next[p];
+			next[p] = s;
+		}
+		if (next[s] < 0) {
+			tail[b] = s;
+		} else {
+			prev[next[s]] = s;
+		}
+	}
+
+	void unlink( int s ) {
+		final int b = (int)days[s] & mask;
+		if (prev[s] < 0) {
+			head[b] = next[s];
+		} else {
+			next[prev[s]] = next[s];
+		}
+		if (next[s] < 0) {
+			tail[b] = prev[s];
+		} else {
+			prev[next[s]] = prev[s];
+		}
+	}
+
+	int[] pending() {
+		final int[] live = live();
+		final Integer[] order = new Integer[live.length];
+		for (int i = 0; i < live.length; i++) order[i] = live[i];
+		Arrays.sort(
+			order, (a, b) -> before( a, b ) ? -1 : (before( b, a ) ? 1 : 0)
+		);
+		for (int i = 0; i < live.length; i++) live[i] = order[i];
+		return live;
+	}
+
+	void grow( int n ) {
+		super.grow( n );
+		days = Arrays.copyOf( days, n );
+		next = Arrays.copyOf( next, n );
+		prev = Arrays.copyOf( prev, n );
+	}
+
+	/** Describe the calendar.
+	 *  @return	its width and number of buckets.
+	 */
+	public String toString() {
+		return(
+			"calendar queue of " + (mask + 1) + " days " +
+			width + " ticks wide"
+		);
+	}
+}
@@ -0,0 +1,315 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.Arrays;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/** Compiler of circuits into Java code specialized to them.
+ *
+ *  {@link Simulation} interprets a circuit: for each input change it
+ *  looks up the type of the gate and goes through a switch on it.  This
+ *  instead renumbers the gates so that those of each type are a
+ *  contiguous range, all the min gates first, then the max gates and so
+ *  on, and writes a run loop for the circuit in which the type of a gate
+ *  follows from comparing its number with the ends of the ranges, which
+ *  are constants.  Each type gets straight-line code of its own for its
+ *  logic and for scheduling a change of its output, with the delay as a
+ *  constant where all the gates of the type have the same delay; the
+ *  code is the same size whatever the size of the circuit.  The source
+ *  is compiled in memory and loaded as a hidden class, which the JIT
+ *  compiler can then inline and optimize like any other code.
+ *
+ *  The code does what {@link Simulation#fused} mode does, and schedules
+ *  the same events in the same order, so it prints exactly what fused
+ *  mode prints.  JVMs without a Java compiler are left to the
+ *  interpreter.  See {@link CompilerBenchmark} for how the two compare.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ *  @see CompilerBenchmark
+ */
+final class CircuitCompiler {
+	private CircuitCompiler() {} // no instances
+
+	/** the name of the generated class */
+	private static final String NAME = "CompiledCircuit";
+
+	/** What the generated code extends; compile and start set its fields */
+	abstract static class Code {
+		Netlist net;		// the circuit, with its gates renumbered
+		int[] origin;		// the number of each gate in the circuit given
+		Simulation sim;		// whose queue, objects and current are used
+		int[] counts;		// as in Simulation, by the new numbers
+		byte[] output;
+
+		/** Handle events until the queue is empty or the simulation is
+		 *  stopped, as Simulation.run does.
+		 */
+		abstract void run();
+	}
+
+	/** Write the expression for the new output of a gate of some type
+	 *  from its input counts, which begin at c[b]; it gives just what
+	 *  Netlist.logicValue gives.
+	 *  @param s	where to write it.
+	 *  @param t	the type.
+	 */
+	private static void logic( StringBuilder s, int t ) {
+		switch (t) {
+		case Netlist.MIN:
+			s.append( "(c[b] != 0) ? 0 : " );
+			s.append( "((c[b + 1] == 0) && (c[b + 2] != 0)) ? 2 : 1" );
+			break;
+		case Netlist.MAX:
+			s.append( "(c[b + 2] != 0) ? 2 : " );
+			s.append( "((c[b + 1] == 0) && (c[b] != 0)) ? 0 : 1" );
+			break;
+		case Netlist.NEG:
+			s.append( "(c[b] != 0) ? 2 : (c[b + 1] != 0) ? 1 : 0" );
+			break;
+		case Netlist.ISFALSE:
+			s.append( "(c[b] != 0) ? 2 : 0" );
+			break;
+		case Netlist.ISTRUE:
+			s.append( "(c[b + 2] != 0) ? 2 : 0" );
+			break;
+		default: // ISUNKNOWN
+			s.append( "(c[b + 1] != 0) ? 2 : 0" );
+		}
+	}
+
+	/** Write the code for an input change of a gate of some type; it
+	 *  counts the change, works out the output and schedules any change
+	 *  of it.
+	 *  @param s	where to write it.
+	 *  @param n	the renumbered circuit.
+	 *  @param t	the type.
+	 *  @param first	the first gate of the type.
+	 *  @param end	the gate after the last of the type.
+	 */
+	private static void input(
+		StringBuilder s, Netlist n, int t, int first, int end
+	) {
+		if (t == Netlist.TABLE) {
+			s.append( "Netlist.input(c, b, mw[m], ov, nv);\n" );
+			s.append( "v = net.value(g, c);\n" );
+		} else {
+			s.append( "c[b + ov]--; c[b + nv]++;\n" );
+			s.append( "v = " );
+			logic( s, t );
+			s.append( ";\n" );
+		}
+
+		// the delay, as a constant if the gates of the type agree on it
+		String delay = Long.toString( n.delay[first] ) + "L";
+		for (int g = first; g < end; g++) {
+			if (n.delay[g] != n.delay[first]) delay = "d[g]";
+		}
+		s.append( "if (v != o[g]) {\n" );
+		s.append( "q.add(t + " ).append( delay ).append( ", " );
+		s.append( Simulation.GATE_OUTPUT ).append( ", g, o[g], v);\n" );
+		s.append( "o[g] = (byte)v;\n}\n" );
+	}
+
+	/** Write the source of the code for a circuit.
+	 *  @param n	the circuit, renumbered so that the gates of each type
+	 *  come together, in order of type.
+	 *  @param first	the first gate of each type, and n.gateCount.
+	 *  @return	the source of a class extending Code.
+	 */
+	static String source( Netlist n, int[] first ) {
+		final StringBuilder s = new StringBuilder();
+		s.append( "final class " ).append( NAME );
+		s.append( " extends CircuitCompiler.Code {\n" );
+
+		// the loop, which runs once, calls a method for each event, so
+		// that the methods are compiled in full rather than on the fly
+		s.append( "void run() {\n" );
+		s.append( "final Simulation s = sim;\n" );
+		s.append( "final EventQueue q = s.eventSet;\n" );
+		s.append( "while (!q.isEmpty()) {\n" );
+		s.append( "q.remove();\n" );
+		s.append( "switch (q.kind) {\n" );
+		s.append( "case " ).append( Simulation.FANOUT ).append( ":\n" );
+		s.append( "fanout(q, q.time, q.target, q.oldv, q.newv);\n" );
+		s.append( "break;\n" );
+		s.append( "case " ).append( Simulation.GATE_OUTPUT ).append( ":\n" );
+		s.append( "output(q, q.time, q.target, q.oldv, q.newv);\n" );
+		s.append( "break;\n" );
+		s.append( "default: // OBJECT\n" );
+		s.append( "s.trigger(q.target);\n" );
+		s.append( "if (s.stopped) return;\n" );
+		s.append( "}\n}\n}\n" );
+
+		// a change reaching the gates of a group, by the type of each;
+		// input gates have no wires into them, so they are left out
+		s.append( "private void fanout(" );
+		s.append( "EventQueue q, long t, int k, int ov, int nv) {\n" );
+		s.append( "final int[] c = counts; final byte[] o = output;\n" );
+		s.append( "final long[] d = net.delay;\n" );
+		s.append( "final int[] md = net.memberDst;\n" );
+		s.append( "final int[] mw = net.memberWeight;\n" );
+		s.append( "final int last = net.groupFirst[k + 1];\n" );
+		s.append( "for (int m = net.groupFirst[k]; m < last; m++) {\n" );
+		s.append( "final int g = md[m];\n" );
+		s.append( "final int b = 3 * g;\n" );
+		s.append( "final int v;\n" );
+		int last = -1; // the last type with any gates wired to
+		for (int t = Netlist.MIN; t < Netlist.INPUT; t++) {
+			if (first[t] < first[t + 1]) last = t;
+		}
+		String branch = "";
+		for (int t = Netlist.MIN; t <= last; t++) {
+			if (first[t] == first[t + 1]) continue;
+			if (t < last) {
+				s.append( branch ).append( "if (g < " );
+				s.append( first[t + 1] ).append( ") {" );
+			} else if (!branch.isEmpty()) {
+				s.append( "else {" );
+			} else {
+				s.append( "{" );
+			}
+			s.append( " // " ).append( Netlist.typeName[t] ).append( '\n' );
+			input( s, n, t, first[t], first[t + 1] );
+			s.append( "} " );
+			branch = "else ";
+		}
+		s.append( "\n}\n}\n" );
+
+		// a change leaving a gate, to each group of its wires
+		s.append( "private void output(" );
+		s.append( "EventQueue q, long t, int g, int ov, int nv) {\n" );
+		s.append( "final long[] gd = net.groupDelay;\n" );
+		s.append( "final int last = net.groups[g + 1];\n" );
+		s.append( "for (int k = net.groups[g]; k < last; k++) {\n" );
+		s.append( "q.add(t + gd[k], " ).append( Simulation.FANOUT );
+		s.append( ", k, ov, nv);\n}\n" );
+		s.append( "sim.current[origin[g]] = (byte)nv;\n" );
+		s.append( "}\n}\n" );
+		return s.toString();
+	}
+
+	/** Compile Java source held in memory.
+	 *  @param source	the source of the class NAME.
+	 *  @return	its class file, or null if it does not compile.
+	 */
+	private static byte[] javac( String source ) {
+		final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) return null; // a JRE without the compiler
+
+		final JavaFileObject in = new SimpleJavaFileObject(
+			URI.create( "string:///" + NAME + ".java" ),
+			JavaFileObject.Kind.SOURCE
+		) {
+			public CharSequence getCharContent( boolean ignore ) {
+				return source;
+			}
+		};
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final StandardJavaFileManager standard
+			= javac.getStandardFileManager( null, null, null );
+		final JavaFileManager files
+			= new ForwardingJavaFileManager <JavaFileManager> ( standard ) {
+			public JavaFileObject getJavaFileForOutput(
+				JavaFileManager.Location where, String name,
+				JavaFileObject.Kind kind, FileObject sibling
+			) {
+				return new SimpleJavaFileObject(
+					URI.create( "bytes:///" + name + ".class" ), kind
+				) {
+					public OutputStream openOutputStream() {
+						return out;
+					}
+				};
+			}
+		};
+
+		final boolean ok = javac.getTask(
+			new StringWriter(), files, null,
+			Arrays.asList( "-g:none", "-proc:none", "-nowarn" ),
+			null, Arrays.asList( in )
+		).call();
+		return ok ? out.toByteArray() : null;
+	}
+
+	/** Compile a circuit.
+	 *  @param n	the circuit.
+	 *  @return	its code, or null if it cannot be compiled, in which case
+	 *  it should be interpreted.
+	 */
+	static Code compile( Netlist n ) {
+		// renumber the gates by type, keeping their order within each
+		final int[] order = new int[n.gateCount];
+		final int[] first = new int[Netlist.INPUT + 2];
+		int i = 0;
+		for (int t = Netlist.MIN; t <= Netlist.INPUT; t++) {
+			first[t] = i;
+			for (int g = 0; g < n.gateCount; g++) {
+				if (n.type[g] == t) order[i++] = g;
+			}
+		}
+		first[Netlist.INPUT + 1] = i;
+		final byte[] constant = new byte[n.gateCount];
+		Arrays.fill( constant, (byte)-1 );
+		final Netlist r = n.subset(
+			order, new boolean[n.wireCount], constant, new long[n.gateCount]
+		);
+		r.groupFanout();
+
+		try {
+			final byte[] bytes = javac( source( r, first ) );
+			if (bytes == null) return null;
+			final Class <?> c = MethodHandles.lookup().defineHiddenClass(
+				bytes, true
+			).lookupClass();
+			final Code code = (Code)c.getDeclaredConstructor().newInstance();
+			code.net = r;
+			code.origin = order;
+			return code;
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/** Set up the state of the circuit compiled and schedule its initial
+	 *  events, in place of {@link Simulation#start}; the events go in in
+	 *  the order that Simulation.start puts them in, so that they are
+	 *  taken in the same order.  Only the current output of each gate is
+	 *  kept in the simulation, by its number in the circuit given; the
+	 *  rest of the state is kept in the code.
+	 *  @param s	the simulation, which is not started.
+	 *  @param code	the code.
+	 */
+	static void start( Simulation s, Code code ) {
+		final Netlist n = code.net;
+		final int[] origin = code.origin;
+		s.current = new byte[n.gateCount];
+		code.sim = s;
+		code.counts = new int[3 * n.gateCount];
+		code.output = new byte[n.gateCount];
+		Arrays.fill( s.current, (byte)1 );
+		Arrays.fill( code.output, (byte)1 );
+
+		final int[] renumbered = new int[n.gateCount];
+		for (int g = 0; g < n.gateCount; g++) {
+			renumbered[origin[g]] = g;
+			n.unknownInputs( g, code.counts );
+		}
+		for ( int g: renumbered ) {
+			final int v = n.value( g, code.counts );
+			if (v != 1) {
+				s.eventSet.add( n.delay[g], Simulation.GATE_OUTPUT, g, 1, v );
+				code.output[g] = (byte)v;
+			}
+		}
+	}
+}
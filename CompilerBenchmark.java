@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** CompilerBenchmark -- compare compiled and interpreted simulation.
+ *
+ *  This reads a circuit, as the simulator does, and simulates it up to a
+ *  time limit, without printing anything, both with {@link Simulation}
+ *  in fused mode and with code from {@link CircuitCompiler}, taking turns
+ *  for some number of rounds, so that the later rounds are JIT compiled.
+ *  It checks that both come to the same outputs after the same number of
+ *  events, and reports the fastest and the median time of each.
+ *
+ *  It runs from the command line, with the circuit file, the time limit
+ *  and optionally the number of rounds, for example
+ *  <pre>
+ *  java CompilerBenchmark circuit.txt 1000 9
+ *  </pre>
+ *  The evaluator is only part of the work; circuits with few events per
+ *  gate at each time spend most of their time in the event queue, which
+ *  both share.
+ *
+ *  @author Ryan Boehm
+ *  @see CircuitCompiler
+ *  @see Simulation
+ */
+public class CompilerBenchmark {
+	private CompilerBenchmark() {} // no instances
+
+	/** Ends a run, see Simulation.stop */
+	private static final class StopEvent extends Simulation.Event {
+		private final Simulation sim;
+
+		StopEvent( Simulation s, long t ) {
+			super( t );
+			sim = s;
+		}
+
+		/** Every event must provide a trigger method */
+		public void trigger() {
+			sim.stop();
+		}
+	}
+
+	/** the simulation of the last run */
+	private static Simulation last;
+
+	/** Time one run.
+	 *  @param n	the circuit.
+	 *  @param code	its compiled code, or null to interpret it.
+	 *  @param limit	the time at which to stop, in ticks.
+	 *  @return	the milliseconds taken.
+	 */
+	private static double time(
+		Netlist n, CircuitCompiler.Code code, long limit
+	) {
+		final Simulation s = new Simulation();
+		s.fused = true;
+		final long start = System.nanoTime();
+		if (code == null) {
+			s.start( n );
+			s.schedule( new StopEvent( s, limit ) );
+			s.run();
+		} else {
+			CircuitCompiler.start( s, code );
+			s.schedule( new StopEvent( s, limit ) );
+			code.run();
+		}
+		last = s;
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	/** Find the fastest of some times.
+	 *  @param t	the times.
+	 *  @return	the least.
+	 */
+	private static double best( double[] t ) {
+		return Arrays.stream( t ).min().getAsDouble();
+	}
+
+	/** Find the median of some times.
+	 *  @param t	the times.
+	 *  @return	the median.
+	 */
+	private static double median( double[] t ) {
+		final double[] sorted = t.clone();
+		Arrays.sort( sorted );
+		return sorted[sorted.length / 2];
+	}
+
+	/** main program that compares compiled and interpreted simulation
+	 *  @param args	the command line arguments, see above.
+	 */
+	public static void main( String[] args ) {
+		if ((args.length < 2) || (args.length > 3)) {
+			Errors.fatal( "Expected FILE LIMIT [ROUNDS] on command line" );
+		}
+		try {
+			final float limit = Float.parseFloat( args[1] );
+			final int rounds = (args.length > 2)
+				? Integer.parseInt( args[2] ) : 5;
+			if (rounds < 1) Errors.fatal( "Rounds must be positive" );
+			NetlistLoader.load( new File( args[0] ) );
+			TernaryLogic.checkNetwork();
+			if (Errors.count() > 0) Errors.fatal( "The circuit has errors" );
+			TernaryLogic.compileNetwork( limit );
+			final Netlist n = TernaryLogic.netlist;
+			final long ticks = n.ticks( limit );
+
+			final long compileStart = System.nanoTime();
+			final CircuitCompiler.Code code = CircuitCompiler.compile( n );
+			if (code == null) Errors.fatal( "Could not compile the circuit" );
+			System.out.println(
+				"compiled " + n.gateCount + " gates in " +
+				(System.nanoTime() - compileStart) / 1000000 + " ms"
+			);
+
+			final double[] interpreted = new double[rounds];
+			final double[] compiled = new double[rounds];
+			for (int round = 0; round < rounds; round++) {
+				interpreted[round] = time( n, null, ticks );
+				final Simulation s = last;
+				compiled[round] = time( n, code, ticks );
+				if ((s.eventSet.removed != last.eventSet.removed)
+				||  !Arrays.equals( s.current, last.current )) {
+					Errors.fatal( "The compiled code went astray" );
+				}
+				System.out.println(
+					"interpreted: " + interpreted[round] +
+					" ms, compiled: " + compiled[round] + " ms, " +
+					s.eventSet.removed + " events"
+				);
+			}
+			System.out.println(
+				"interpreted: best " + best( interpreted ) +
+				" ms, median " + median( interpreted ) + " ms"
+			);
+			System.out.println(
+				"compiled: best " + best( compiled ) +
+				" ms, median " + median( compiled ) + " ms"
+			);
+		} catch (NumberFormatException e) {
+			Errors.fatal( "Bad number on command line" );
+		} catch (IOException e) {
+			Errors.fatal( "Could not read '" + args[0] + "'" );
+		}
+	}
+}
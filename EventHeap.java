@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/** Indexed binary heap of pending simulation events.
+ *
+ *  The heap only moves slot numbers around; the events themselves stay
+ *  put in the slots of {@link EventQueue}.  Adding and removing events
+ *  takes time proportional to the logarithm of the number pending, no
+ *  matter how their times are spread out.
+ *
+ *  Events are compared by time alone and sifted just as
+ *  java.util.PriorityQueue sifts them, so events with equal times come
+ *  out in the order that the original simulator, which queued Event
+ *  objects in a PriorityQueue, took them in.  That order matters: a row
+ *  printed at some time shows whichever of the changes due then came out
+ *  before it.  A wider heap would be a little faster, but it would take
+ *  ties in another order.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ */
+final class EventHeap extends EventQueue {
+	private int heap[] = new int[64];	// heap[i] is the slot at position i
+	private int pos[]  = new int[64];	// pos[s] is the position of slot s
+
+	int first() {
+		return heap[0];
+	}
+
+	void insert( int s ) {
+		siftUp( size, s );
+	}
+
+	void unlink( int s ) {
+		final int i = pos[s];
+		if (i == size) return; // it was the last
+		final int last = heap[size];
+		siftDown( i, last );
+		if (pos[last] == i) siftUp( i, last );
+	}
+
+	int[] pending() {
+		return Arrays.copyOf( heap, size );
+	}
+
+	void grow( int n ) {
+		super.grow( n );
+		heap = Arrays.copyOf( heap, n );
+		pos = Arrays.copyOf( pos, n );
+	}
+
+	/** Move slot s up from the hole at position i to its place.
+	 *  @param i	the position of the hole.
+	 *  @param s	the slot to place.
+	 */
+	private void siftUp( int i, int s ) {
+		final long t = times[s];
+		while (i > 0) {
+			final int p = (i - 1) >>> 1;
+			final int ps = heap[p];
+			if (t >= times[ps]) break;
+			heap[i] = ps;
+			pos[ps] = i;
+			i = p;
+		}
+		heap[i] = s;
+		pos[s] = i;
+	}
+
+	/** Move slot s down from the hole at position i to its place.
+	 *  @param i	the position of the hole.
+	 *  @param s	the slot to place.
+	 */
+	private void siftDown( int i, int s ) {
+		final long t = times[s];
+		for (;;) {
+			int c = 2 * i + 1;
+			if (c >= size) break;
+
+			// the earlier child, the left one if they are equal
+			if ((c + 1 < size) && (times[heap[c + 1]] < times[heap[c]])) {
+				c = c + 1;
+			}
+
+			if (t <= times[heap[c]]) break;
+			heap[i] = heap[c];
+			pos[heap[i]] = i;
+			i = c;
+		}
+		heap[i] = s;
+		pos[s] = i;
+	}
+}
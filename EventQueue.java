@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/** Pending simulation events, in order of time.
+ *
+ *  Events are not objects here; each pending event occupies a slot in a
+ *  set of parallel primitive arrays, and subclasses only keep track of
+ *  the order of slot numbers.  Once the arrays have grown to the peak
+ *  number of pending events, scheduling and removing events allocates
+ *  nothing.
+ *
+ *  Events are ordered by time.  How events with equal times are ordered
+ *  is up to the subclass; each keeps to some fixed rule, so that the same
+ *  events added in the same order always come out in the same order.
+ *
+ *  @author Ryan Boehm
+ *  @see EventHeap
+ *  @see CalendarQueue
+ *  @see Simulation
+ */
+abstract class EventQueue {
+	// the fields of each slot, see add()
+	long  times[]   = new long[64];	// in ticks, see Netlist
+	long  orders[]  = new long[64];	// sequence number
+	int   kinds[]   = new int[64];
+	int   targets[] = new int[64];
+	int   oldvs[]   = new int[64];
+	int   newvs[]   = new int[64];
+
+	int size = 0;				// number of pending events
+
+	private int free[] = new int[64];	// stack of unused slots
+	private int freeCount = 0;
+	private int slots = 0;			// slots ever handed out
+
+	private long sequence = 0;		// tie breaker for equal times
+
+	/** the number of events taken by remove() so far */
+	long removed = 0;
+
+	// the fields of the event most recently taken by remove()
+	long  time;
+	int   kind;
+	int   target;
+	int   oldv;
+	int   newv;
+
+	/** Are there any pending events?
+	 *  @return true if there are none.
+	 */
+	final boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** How many events are pending?
+	 *  @return the count of pending events.
+	 */
+	final int size() {
+		return size;
+	}
+
+	/** When is the earliest event due?
+	 *  @return its time, or Long.MAX_VALUE if there are none.
+	 */
+	final long peekTime() {
+		return (size == 0) ? Long.MAX_VALUE : times[first()];
+	}
+
+	/** What kind of event is the earliest?
+	 *  Never call this on an empty queue.
+	 *  @return the kind of the earliest event.
+	 */
+	final int peekKind() {
+		return kinds[first()];
+	}
+
+	/** Add an event to the queue.
+	 *  @param t	the time of the event.
+	 *  @param k	the kind of the event.
+	 *  @param tg	the target of the event, interpreted by its kind.
+	 *  @param ov	the old value carried by the event.
+	 *  @param nv	the new value carried by the event.
+	 *  @return	a handle for the event, good until it is removed,
+	 *  see cancel and reschedule.
+	 */
+	final int add( long t, int k, int tg, int ov, int nv ) {
+		final int s = allocate();
+		times[s] = t;
+		orders[s] = sequence;
+		sequence = sequence + 1;
+		kinds[s] = k;
+		targets[s] = tg;
+		oldvs[s] = ov;
+		newvs[s] = nv;
+
+		insert( s );
+		size = size + 1;
+		return s;
+	}
+
+	/** Take a pending event out of the queue without it happening.
+	 *  @param s	the handle of the event, from add.
+	 */
+	final void cancel( int s ) {
+		size = size - 1;
+		unlink( s );
+		free[freeCount] = s;
+		freeCount = freeCount + 1;
+	}
+
+	/** Move a pending event to a new time and values, as if it had
+	 *  been cancelled and added again; its handle stays the same.
+	 *  @param s	the handle of the event, from add.
+	 *  @param t	the new time of the event.
+	 *  @param ov	the new old value carried by the event.
+	 *  @param nv	the new new value carried by the event.
+	 */
+	final void reschedule( int s, long t, int ov, int nv ) {
+		size = size - 1;
+		unlink( s );
+		times[s] = t;
+		orders[s] = sequence;
+		sequence = sequence + 1;
+		oldvs[s] = ov;
+		newvs[s] = nv;
+		insert( s );
+		size = size + 1;
+	}
+
+	/** Make all the pending events but those of one kind due later,
+	 *  keeping the order in which they will be taken, as if they had
+	 *  all been taken out and added again in that order; their handles
+	 *  stay the same.  No event that is made later may end up due after
+	 *  one of that kind that is not.
+	 *  @param d	how much later, in ticks.
+	 *  @param k	the kind of event left as it is.
+	 */
+	final void delay( long d, int k ) {
+		final int[] order = pending();
+		for (int i = order.length - 1; i >= 0; i--) {
+			size = size - 1;
+			unlink( order[i] );
+		}
+		for ( int s: order ) {
+			if (kinds[s] != k) times[s] = times[s] + d;
+			orders[s] = sequence;
+			sequence = sequence + 1;
+			insert( s );
+			size = size + 1;
+		}
+	}
+
+	/** Remove the earliest event, leaving its fields in
+	 *  <code>time</code>, <code>kind</code>, <code>target</code>,
+	 *  <code>oldv</code> and <code>newv</code>.
+	 *  Never call this on an empty queue.
+	 */
+	final void remove() {
+		final int s = first();
+		time = times[s];
+		kind = kinds[s];
+		target = targets[s];
+		oldv = oldvs[s];
+		newv = newvs[s];
+		removed = removed + 1;
+
+		size = size - 1;
+		unlink( s );
+		free[freeCount] = s;
+		freeCount = freeCount + 1;
+	}
+
+	/** Find the pending events; this allocates, so it is only for
+	 *  occasional use.
+	 *  @return	their slots, in no particular order.
+	 */
+	final int[] live() {
+		final boolean[] unused = new boolean[slots];
+		for (int i = 0; i < freeCount; i++) unused[free[i]] = true;
+		final int[] live = new int[size];
+		int n = 0;
+		for (int s = 0; s < slots; s++) {
+			if (!unused[s]) live[n++] = s;
+		}
+		return live;
+	}
+
+	/** List the pending events in an order that, with their fields,
+	 *  decides the order in which they will all be taken, whatever is
+	 *  added later; this allocates, so it is only for occasional use.
+	 *  @return	their slots.
+	 */
+	abstract int[] pending();
+
+	/** Find the earliest event; the queue is not empty.
+	 *  @return its slot.
+	 */
+	abstract int first();
+
+	/** Put a newly filled slot in its place.
+	 *  When this is called, <code>size</code> does not yet count it.
+	 *  @param s	the slot.
+	 */
+	abstract void insert( int s );
+
+	/** Take a slot out of the queue.
+	 *  When this is called, <code>size</code> no longer counts it.
+	 *  @param s	the slot.
+	 */
+	abstract void unlink( int s );
+
+	/** Make room for more slots.
+	 *  Subclasses with arrays indexed by slot must grow them too.
+	 *  @param n	the new number of slots.
+	 */
+	void grow( int n ) {
+		times = Arrays.copyOf( times, n );
+		orders = Arrays.copyOf( orders, n );
+		kinds = Arrays.copyOf( kinds, n );
+		targets = Arrays.copyOf( targets, n );
+		oldvs = Arrays.copyOf( oldvs, n );
+		newvs = Arrays.copyOf( newvs, n );
+		free = Arrays.copyOf( free, n );
+	}
+
+	/** Get a slot for a new event, growing the arrays if needed.
+	 *  @return the slot number.
+	 */
+	private int allocate() {
+		if (freeCount > 0) {
+			freeCount = freeCount - 1;
+			return free[freeCount];
+		}
+		if (slots == times.length) grow( slots * 2 );
+		slots = slots + 1;
+		return slots - 1;
+	}
+
+	/** Does slot a come before slot b, taking ties in the order in
+	 *  which they were added?
+	 *  @param a	a slot.
+	 *  @param b	another slot.
+	 *  @return	true if a is due first.
+	 */
+	final boolean before( int a, int b ) {
+		final long ta = times[a];
+		final long tb = times[b];
+		return (ta < tb) || ((ta == tb) && (orders[a] < orders[b]));
+	}
+}
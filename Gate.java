@@ -1,4 +1,3 @@
-
 /** abstract class defining generic properties of logic gates
  *  @author Ryan Boehm
  *
@@ -9,23 +8,24 @@
  *  @see IsTGate
  *  @see IsFGate
  *  @see IsUGate
+ *  @see TableGate
+ *  @see InputGate
  *  @see TernaryLogic#findGate(String)
+ *  @see Netlist
  */
 
-import java.util.LinkedList;
 import java.util.Scanner;
 
 public abstract class Gate {
 
-	private final LinkedList <Wire> outgoing = new LinkedList <Wire> ();
 	/** setter method to add outgoing wires to this gate
 	 *  @param w the wire that connects from this gate
 	 */
 	public void addOutgoing( Wire w ) {
-		outgoing.add( w );
+		// nothing to do, Netlist.compile finds the wires from each gate
 	}
 
-	private int incount = 0;	// how many inputs are connected?
+	int incount = 0;	// how many inputs are connected?
 	/** setter method to add incoming wires to this gate
 	 *  @param w the wire that connects to this gate
 	 */
@@ -35,9 +35,11 @@ public abstract class Gate {
 	}
 
 	public final String name;	// the name of the gate
+	int index;			// position in the compiled Netlist
 
 	// Gripe:  We'd like to declare the following as final, but can't
 	// because they're set by the subclass constructor
+	public       byte   type;	// the type code of the gate, see Netlist
 	public       int    inputs;	// the type of the gate
 	public       float  delay;	// the type of the gate
 
@@ -90,6 +92,12 @@ public abstract class Gate {
 		} else if ("isunknown".equals( myType )) {
 			return new IsUGate( sc, myName );
 
+		} else if ("table".equals( myType )) {
+			return new TableGate( sc, myName );
+
+		} else if ("input".equals( myType )) {
+			return new InputGate( sc, myName );
+
 		} else {
 			Errors.warn(
 				"Gate '" + myName +
@@ -101,6 +109,26 @@ public abstract class Gate {
 		}
 	}
 
+	/** factory method for gates scanned by other means than a Scanner;
+	 *  the caller must set the delay and, for min, max and table, the
+	 *  inputs, and for table the truth table.
+	 *  @param myName	the name of the new gate.
+	 *  @param t	the type code of the new gate, see Netlist.
+	 *  @return the newly constructed gate.
+	 */
+	static Gate newGate( String myName, byte t ) {
+		switch (t) {
+		case Netlist.MIN:       return new MinGate( myName );
+		case Netlist.MAX:       return new MaxGate( myName );
+		case Netlist.NEG:       return new NegGate( myName );
+		case Netlist.ISFALSE:   return new IsFGate( myName );
+		case Netlist.ISTRUE:    return new IsTGate( myName );
+		case Netlist.TABLE:     return new TableGate( myName );
+		case Netlist.INPUT:     return new InputGate( myName );
+		default:                return new IsUGate( myName );
+		}
+	}
+
 	/** Scan gate's delay and line end to finish initialization;
 	 *  this is always called at the end of the subclass constructor.
 	 *  @param sc	The scanner from which input is read to build the gate.
@@ -132,15 +160,6 @@ public abstract class Gate {
 
 	// ***** Logic Simulation *****
 
-	// for logic values, inputCount[v] shows how many inputs have that value
-	int inputCounts[] = new int[3];
-
-	// all of the following are initially set to unknown
-	int output = 1;   // this gate's most recently computed output value
-	int current = 1;  // this gate's current output for printing
-	int previous = 1; // this gate's previously printed output
-	
-
 	/** Sanity check for gates */
 	public void check() {
 		if (incount < inputs) {
@@ -153,114 +172,9 @@ public abstract class Gate {
 			);
 		}
 
-		// initially, all the inputs are unknown
-		inputCounts[0] = 0;
-		inputCounts[1] = inputs;
-		inputCounts[2] = 0;
-
-		// and initially, the output is unknown
-		output = 1;
-
-		// some subclasses will add to this behavior
-	}
-	
-	/** The textual print value for this gate as required by MP5.
-	 *  The first array index is the old value,
-	 *  the second array index is the new value.
-	 */
-	private static final String[][] printValues = {
-		{ "|    ", "|_   ", "|___ " },
-		{ " _|  ", "  |  ", "  |_ " },
-		{ " ___|", "   _|", "    |" }
-	};
-
-	/** Get the graphical display of this gate's output since the last
-	 *  time this gate was checked.
-	 *  @return	 The string to be displayed.
-	 */
-	public String printValue() {
-		String r = printValues[previous][current];
-		previous = current;
-		return r;
-	}
-
-	/** Every subclass must define this function;
-	 *  @return the new logic value, a function of <TT>inputCounts</TT>;
-	 */
-	protected abstract int logicValue();
-
-
-	/** simulation class for an input change to this wire */
-	public static final class InputChangeEvent extends Simulation.Event {
-		private final Gate g;   // the gate with an input that changes
-		private final int oldv; // the former value on g
-		private final int newv; // the new value on g
-
-		/** Construct an input change event
-		 *  @param time	the time at which the input changes.
-		 *  @param w	the gate where the input changes.
-		 *  @param ov	the previous logic value carried over g.
-		 *  @param nv	the new logic value carried over g.
-		 */
-		public InputChangeEvent( float time, Gate g, int ov, int nv) {
-			super( time );
-			this.g = g;
-			this.oldv = ov;
-			this.newv = nv;
-		}
-
-		
-		/** Every event must provide a trigger method */
-		public void trigger() {
-			// decrement input counts
-			g.inputCounts[oldv]--;
-			g.inputCounts[newv]++;
-
-			// new output value
-			final int newOut = g.logicValue();
-
-			if ( g.output != newOut ) {
-				final int old = g.output; // set old output value
-				Simulation.schedule( new OutputChangeEvent(
-					time + g.delay, g, old, newOut
-					) 
-				);
-				g.output = newOut; // reset output
-			}
-			
-		}
-	};
-
-
-	/** simulation class for an output change to this wire */
-	public static final class OutputChangeEvent extends Simulation.Event {
-		private final Gate g;   // the gate where the output changes
-		private final int oldv; // the former value on g
-		private final int newv; // the new value on g
-
-		/** Construct an output change event
-		 *  @param time	the time at which the output changes.
-		 *  @param g	the gate where the output changes.
-		 *  @param ov	the previous logic value that entered g.
-		 *  @param nv	the new logic value that exits g.
-		 */
-		public OutputChangeEvent( float time, Gate g, int ov, int nv ) {
-			super( time );
-			this.g = g;
-			this.oldv = ov;
-			this.newv = nv;
-		}
-
-		/** Every event must provide a trigger method */
-		public void trigger() {
-			for ( Wire w: g.outgoing ) {
-				Simulation.schedule( new Wire.InputChangeEvent(
-					time, w, oldv, newv
-					) 
-				);
-			}
-			g.current = newv;
-		}
+		// simulation state is set up by Simulation.start
 	}
 
+	// Every subclass must also define a static logicValue method
+	// computing its output from an array of input counts, see Netlist
 }
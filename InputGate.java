@@ -0,0 +1,46 @@
+import java.util.Scanner;
+
+/** the input gate, driven from outside the circuit.
+ *
+ *  An input gate has no inputs; its output is unknown until a stimulus
+ *  file changes it, see {@link Stimulus}.  Each change reaches the output
+ *  after the delay of the gate, which is usually 0, for example:
+ *  <pre>
+ *  gate A input 0.0
+ *  </pre>
+ *
+ *  @author Ryan Boehm
+ *  @see Gate
+ *  @see Stimulus
+ */
+public class InputGate extends Gate {
+	/** initializer for an input gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	InputGate( String myName ) {
+		super( myName );
+		type = Netlist.INPUT;
+
+		inputs = 0; // it is driven by the stimulus
+	}
+
+	/** initializer scans and processes one input gate
+	 *  @param sc Scanner from which gate description is read
+	 *  @param myName the value to be put in the name field
+	 */
+	InputGate( Scanner sc, String myName ) {
+		// the text "gate myName input" has already been scanned
+		this( myName );
+
+		this.finishGate( sc );
+	}
+
+        /** get a representation for this Gate in the form used for input
+         *  @return the representation as a string
+         */
+	public String toString() {
+		return(
+			this.myString() + " input " + delay
+		);
+	}
+}
@@ -5,15 +5,23 @@ import java.util.Scanner;
  *  @see Gate
  */
 public class IsFGate extends Gate {
+	/** initializer for a is-false gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	IsFGate( String myName ) {
+		super( myName );
+		type = Netlist.ISFALSE;
+
+		inputs = 1; // it is a one-input gate
+	}
+
 	/** initializer scans and processes one is-false gate
 	 *  @param sc the Scanner from which gate description is read
 	 *  @param myName the value to be put in the name field
 	 */
 	IsFGate( Scanner sc, String myName ) {
 		// the text "gate myName min" has already been scanned
-		super( myName );
-
-		inputs = 1; // it is a one-input gate
+		this( myName );
 
 		this.finishGate( sc );
 	}
@@ -29,24 +37,15 @@ public class IsFGate extends Gate {
 
 	// ***** Logic Simulation for IsFGate *****
 
-	/** Sanity check for IsFGate */
-	public void check() {
-		super.check();
-
-		// now change the output from unknown to false
-		Simulation.schedule( new Gate.OutputChangeEvent(
-			delay, this, 1, 0
-		) );
-		output = 0;
-	}
-
 	/** Return the new logic value, false unless the input is false.
          *  Every subclass of gate must define this.
+	 *  @param inputCounts holds how many inputs have each value.
+	 *  @param b the index of the count of false inputs.
 	 *  @return the new logic value, a function of <TT>inputCounts</TT>;
 	 */
-	protected int logicValue() {
+	static int logicValue( int[] inputCounts, int b ) {
 		int newOutput = 0;
-		if (inputCounts[0] != 0) newOutput = 2;
+		if (inputCounts[b + 0] != 0) newOutput = 2;
 		return newOutput;
 	}
 }
@@ -5,15 +5,23 @@ import java.util.Scanner;
  *  @see Gate
  */
 public class IsTGate extends Gate {
+	/** initializer for a is-true gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	IsTGate( String myName ) {
+		super( myName );
+		type = Netlist.ISTRUE;
+
+		inputs = 1; // it is a one-input gate
+	}
+
 	/** initializer scans and processes one is-true gate
 	 *  @parame sc Scanner from which gate description is read
 	 *  @param myName the value to be put in the name field
 	 */
 	IsTGate( Scanner sc, String myName ) {
 		// the text "gate myName min" has already been scanned
-		super( myName );
-
-		inputs = 1; // it is a one-input gate
+		this( myName );
 
 		this.finishGate( sc );
 	}
@@ -29,24 +37,15 @@ public class IsTGate extends Gate {
 
 	// ***** Logic Simulation for IsTGate *****
 
-	/** Sanity check for IsTGate */
-	public void check() {
-		super.check();
-
-		// now change the output from unknown to false
-		Simulation.schedule( new Gate.OutputChangeEvent(
-			delay, this, 1, 0
-		) );
-		output = 0;
-	}
-
         /** Return the new logic value, false unless the input is true.
          *  Every subclass of gate must define this.
+         *  @param inputCounts holds how many inputs have each value.
+         *  @param b the index of the count of false inputs.
          *  @return the new logic value, a function of <TT>inputCounts</TT>;
          */
-	protected int logicValue() {
+	static int logicValue( int[] inputCounts, int b ) {
 		int newOutput = 0;
-		if (inputCounts[2] != 0) newOutput = 2;
+		if (inputCounts[b + 2] != 0) newOutput = 2;
 		return newOutput;
 	}
 }
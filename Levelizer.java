@@ -0,0 +1,355 @@
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/** Levelized evaluation of the feed-forward parts of a circuit.
+ *
+ *  The strongly connected components of the circuit are found, and a
+ *  gate is swept, instead of simulated event by event, if it is in no
+ *  feedback loop and every gate it feeds is swept too.  So the swept
+ *  gates are the acyclic logic downstream of the loops, and the loops
+ *  and everything feeding them stay event driven.
+ *
+ *  Swept gates get no events at all.  Instead, each time the outputs are
+ *  printed, their values are worked out in one pass in topological order,
+ *  from the definition of a gate with delay d: its output at any time t
+ *  up to d is unknown, and after that it is the function of its inputs
+ *  at time t - d.  A wire with delay w carries at time t what its source
+ *  put out at time t - w.  Where that reaches back to an event driven
+ *  gate, its value comes from a history of that gate's output changes.
+ *  Each swept gate is worked out at each of the fixed offsets before the
+ *  print time that the gates downstream of it need; gates that would need
+ *  too many offsets are left event driven.
+ *
+ *  This gives exactly the values that {@link Simulation} would print,
+ *  but nothing about the waveforms of swept gates between prints.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ */
+final class Levelizer {
+	private Levelizer() {} // no instances
+
+	/** the most offsets at which a gate is worked out */
+	private static final int MAX_OFFSETS = 64;
+
+	/** set once analyze has run, so that output changes are recorded */
+	static boolean active = false;
+
+	private static Netlist net;
+
+	/** which gates are swept */
+	static boolean[] swept;
+
+	/** the swept gates in topological order */
+	private static int[] order;
+
+	// for each swept gate in order, the offsets at which it is needed,
+	// in slots[first[i]] up to slots[first[i + 1]]
+	private static int[] first;
+	private static long[] offset;	// the offset of each slot
+
+	// for each slot and each input of its gate, in the same order as the
+	// slots, where the input comes from: a slot of a swept gate, or
+	// the complement of an event driven gate
+	private static int[] inputFirst;
+	private static int[] inputFrom;
+	private static long[] inputDelay; // total delay back to that gate
+
+	/** the value worked out for each slot */
+	private static byte[] value;
+
+	// the output changes of each event driven gate that feeds swept gates
+	private static long[][] historyTime;
+	private static byte[][] historyValue;
+	private static int[] historyStart;	// the oldest entry still needed
+	private static int[] historyEnd;	// one past the newest entry
+	private static long[] historySpan;	// how far back it is needed
+
+	/** Find the strongly connected components of the circuit, with an
+	 *  iterative version of Tarjan's algorithm.
+	 *  Components are numbered in reverse topological order: whenever a
+	 *  wire joins two components, its source has the higher number.
+	 *  @return	the component of each gate.
+	 */
+	private static int[] components() {
+		final int n = net.gateCount;
+		final int[] index = new int[n];	// discovery order, from 1
+		final int[] low = new int[n];
+		final int[] component = new int[n];
+		Arrays.fill( component, -1 );
+
+		final int[] stack = new int[n];	// Tarjan's stack
+		int sp = 0;
+		final int[] call = new int[n];	// the depth first search path
+		final int[] edge = new int[n];	// the next wire to follow
+		int count = 0;
+		int components = 0;
+
+		for (int root = 0; root < n; root++) {
+			if (index[root] != 0) continue;
+			int depth = 0;
+			call[0] = root;
+			edge[root] = net.fanout[root];
+			count = count + 1;
+			index[root] = low[root] = count;
+			stack[sp++] = root;
+
+			while (depth >= 0) {
+				final int g = call[depth];
+				if (edge[g] < net.fanout[g + 1]) {
+					final int h = net.wireDst[edge[g]];
+					edge[g] = edge[g] + 1;
+					if (index[h] == 0) { // visit h
+						count = count + 1;
+						index[h] = low[h] = count;
+						stack[sp++] = h;
+						edge[h] = net.fanout[h];
+						depth = depth + 1;
+						call[depth] = h;
+					} else if (component[h] < 0) { // h is on the stack
+						low[g] = Math.min( low[g], index[h] );
+					}
+				} else { // done with g
+					if (low[g] == index[g]) {
+						int h;
+						do {
+							sp = sp - 1;
+							h = stack[sp];
+							component[h] = components;
+						} while (h != g);
+						components = components + 1;
+					}
+					depth = depth - 1;
+					if (depth >= 0) {
+						final int p = call[depth];
+						low[p] = Math.min( low[p], low[g] );
+					}
+				}
+			}
+		}
+		return component;
+	}
+
+	/** Decide which gates to sweep and plan how to work them out.
+	 *  @param n	the compiled circuit.
+	 *  @return	the circuit without the wires into swept gates, to be
+	 *  simulated by {@link Simulation} in place of n.
+	 */
+	static Netlist analyze( Netlist n ) {
+		net = n;
+		final int[] component = components();
+
+		// the gates in each component, numbered in reverse topological
+		// order, so that the gates fed come before the gates feeding
+		final int[] byComponent = new int[n.gateCount];
+		final int[] size = new int[n.gateCount + 1];
+		for (int g = 0; g < n.gateCount; g++) size[component[g] + 1]++;
+		for (int c = 0; c < n.gateCount; c++) size[c + 1] += size[c];
+		final int[] next = Arrays.copyOf( size, n.gateCount );
+		for (int g = 0; g < n.gateCount; g++) {
+			byComponent[next[component[g]]++] = g;
+		}
+
+		// decide, finding the offsets at which each swept gate is needed
+		swept = new boolean[n.gateCount];
+		final long[][] offsets = new long[n.gateCount][];
+		int sweptCount = 0;
+		int slotCount = 0;
+		for ( int g: byComponent ) {
+			if (size[component[g] + 1] - size[component[g]] > 1) continue;
+			if (n.type[g] == Netlist.TABLE) continue; // needs its ports
+			if (n.type[g] == Netlist.INPUT) continue; // has no inputs
+
+			final TreeSet <Long> need = new TreeSet <Long> ();
+			need.add( 0L ); // for printing
+			boolean ok = true;
+			for (int e = n.fanout[g]; ok && (e < n.fanout[g + 1]); e++) {
+				final int h = n.wireDst[e];
+				if ((h == g) || !swept[h]) {
+					ok = false;
+				} else for ( long o: offsets[h] ) {
+					need.add( o + n.delay[h] + n.wireDelay[e] );
+				}
+				if (need.size() > MAX_OFFSETS) ok = false;
+			}
+			if (!ok) continue;
+
+			swept[g] = true;
+			offsets[g] = new long[need.size()];
+			int i = 0;
+			for ( long o: need ) offsets[g][i++] = o;
+			sweptCount = sweptCount + 1;
+			slotCount = slotCount + need.size();
+		}
+
+		// lay out the slots in topological order
+		order = new int[sweptCount];
+		first = new int[sweptCount + 1];
+		offset = new long[slotCount];
+		final int[] slotOf = new int[n.gateCount]; // first slot of each
+		int k = 0;
+		int s = 0;
+		for (int i = n.gateCount - 1; i >= 0; i--) {
+			final int g = byComponent[i];
+			if (!swept[g]) continue;
+			order[k] = g;
+			first[k] = s;
+			slotOf[g] = s;
+			for ( long o: offsets[g] ) offset[s++] = o;
+			k = k + 1;
+		}
+		first[k] = s;
+		value = new byte[slotCount];
+
+		// where the inputs of each slot come from
+		final int[] faninCount = new int[n.gateCount];
+		for (int e = 0; e < n.wireCount; e++) faninCount[n.wireDst[e]]++;
+		inputFirst = new int[slotCount + 1];
+		for (k = 0; k < order.length; k++) {
+			final int g = order[k];
+			for (s = first[k]; s < first[k + 1]; s++) {
+				inputFirst[s + 1] = inputFirst[s] + faninCount[g];
+			}
+		}
+		inputFrom = new int[inputFirst[slotCount]];
+		inputDelay = new long[inputFirst[slotCount]];
+		final int[] filled = new int[slotCount];
+		historySpan = new long[n.gateCount];
+		final boolean[] dropped = new boolean[n.wireCount];
+		for (int h = 0; h < n.gateCount; h++) {
+			for (int e = n.fanout[h]; e < n.fanout[h + 1]; e++) {
+				final int g = n.wireDst[e];
+				if (!swept[g]) continue;
+				dropped[e] = true;
+				final int base = slotOf[g];
+				for (int j = 0; j < offsets[g].length; j++) {
+					final long back = n.delay[g] + n.wireDelay[e];
+					final int i = inputFirst[base + j] + filled[base + j]++;
+					inputDelay[i] = back;
+					final long o = offsets[g][j] + back;
+					if (swept[h]) {
+						final int at = Arrays.binarySearch( offsets[h], o );
+						inputFrom[i] = slotOf[h] + at;
+					} else {
+						inputFrom[i] = ~h;
+						historySpan[h] = Math.max( historySpan[h], o );
+					}
+				}
+			}
+		}
+
+		historyTime = new long[n.gateCount][];
+		historyValue = new byte[n.gateCount][];
+		historyStart = new int[n.gateCount];
+		historyEnd = new int[n.gateCount];
+		for (int h = 0; h < n.gateCount; h++) {
+			if (swept[h]) continue;
+			for (int e = n.fanout[h]; e < n.fanout[h + 1]; e++) {
+				if (swept[n.wireDst[e]]) {
+					historyTime[h] = new long[16];
+					historyValue[h] = new byte[16];
+					break;
+				}
+			}
+		}
+
+		if (TernaryLogic.stats) System.err.println(
+			"Levelized " + sweptCount + " of " + n.gateCount +
+			" gates, worked out at " + slotCount + " offsets"
+		);
+		active = true;
+		return n.without( dropped );
+	}
+
+	/** Record a change of output of an event driven gate.
+	 *  @param time	the time of the change.
+	 *  @param g	the gate.
+	 *  @param v	the new value.
+	 */
+	static void change( long time, int g, int v ) {
+		long[] t = historyTime[g];
+		if (t == null) return;
+		byte[] b = historyValue[g];
+		int end = historyEnd[g];
+		if (end == t.length) {
+			// drop what is no longer needed, or else grow
+			final int start = historyStart[g];
+			if (start > t.length / 2) {
+				System.arraycopy( t, start, t, 0, end - start );
+				System.arraycopy( b, start, b, 0, end - start );
+				end = end - start;
+				historyStart[g] = 0;
+			} else {
+				t = historyTime[g] = Arrays.copyOf( t, end * 2 );
+				b = historyValue[g] = Arrays.copyOf( b, end * 2 );
+			}
+		}
+		t[end] = time;
+		b[end] = (byte)v;
+		historyEnd[g] = end + 1;
+	}
+
+	/** Get the output of an event driven gate just before some time.
+	 *  @param g	the gate.
+	 *  @param time	the time.
+	 *  @return	its value after all changes before then.
+	 */
+	private static int history( int g, long time ) {
+		final long[] t = historyTime[g];
+		int lo = historyStart[g];	// entries before lo are earlier
+		int hi = historyEnd[g];		// entries from hi on are not
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (t[mid] < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (lo == 0) ? 1 : historyValue[g][lo - 1];
+	}
+
+	/** Work out the outputs of the swept gates just before a time,
+	 *  leaving them in the current outputs of the simulation for
+	 *  printing.  Call this at increasing times.
+	 *  @param time	the time.
+	 *  @param current	the current outputs, see Simulation#current.
+	 */
+	static void sample( long time, byte[] current ) {
+		final int[] counts = new int[3];
+		for (int k = 0; k < order.length; k++) {
+			final int g = order[k];
+			final long d = net.delay[g];
+			for (int s = first[k]; s < first[k + 1]; s++) {
+				final long t = time - offset[s];
+				if (t <= d) {
+					value[s] = 1; // not yet changed from unknown
+					continue;
+				}
+				counts[0] = counts[1] = counts[2] = 0;
+				for (int i = inputFirst[s]; i < inputFirst[s + 1]; i++) {
+					final int from = inputFrom[i];
+					if (from >= 0) {
+						counts[value[from]]++;
+					} else {
+						counts[history( ~from, t - inputDelay[i] )]++;
+					}
+				}
+				value[s] = (byte)Netlist.logicValue( net.type[g], counts, 0 );
+			}
+			current[g] = value[first[k]]; // offset 0 comes first
+		}
+
+		// forget history that later samples cannot reach back to
+		for (int h = 0; h < historyTime.length; h++) {
+			final long[] t = historyTime[h];
+			if (t == null) continue;
+			final long oldest = time - historySpan[h];
+			int start = historyStart[h];
+			while ((start + 1 < historyEnd[h]) && (t[start + 1] < oldest)) {
+				start = start + 1;
+			}
+			historyStart[h] = start;
+		}
+	}
+}
@@ -5,13 +5,21 @@ import java.util.Scanner;
  *  @see Gate
  */
 public class MaxGate extends Gate {
+	/** initializer for a max gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	MaxGate( String myName ) {
+		super( myName );
+		type = Netlist.MAX;
+	}
+
 	/** initializer scans and processes one max gate
 	 *  @param sc Scanner from which gate description is read
 	 *  @param myName the value to be put in the name field
 	 */
 	MaxGate( Scanner sc, String myName ) {
 		// the text "gate myName min" has already been scanned
-		super( myName );
+		this( myName );
 
 		// get inputs
 		if (sc.hasNextInt()) {
@@ -38,12 +46,15 @@ public class MaxGate extends Gate {
 
         /** Return the new logic value, the max of the input values.
          *  Every subclass of gate must define this.
+         *  @param inputCounts holds how many inputs have each value.
+         *  @param b the index of the count of false inputs.
          *  @return the new logic value, a function of <TT>inputCounts</TT>;
          */
-	protected int logicValue() {
-		// find the maximum of all the inputs
-		int newOutput = 2;
-		while (inputCounts[newOutput] == 0) newOutput--;
-		return newOutput;
+	static int logicValue( int[] inputCounts, int b ) {
+		// find the maximum of all the inputs; with no inputs at all,
+		// the output stays unknown, as it always has
+		if (inputCounts[b + 2] != 0) return 2;
+		if ((inputCounts[b + 1] == 0) && (inputCounts[b] != 0)) return 0;
+		return 1;
 	}
 }
@@ -5,13 +5,21 @@ import java.util.Scanner;
  *  @see Gate
  */
 public class MinGate extends Gate {
+	/** initializer for a min gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	MinGate( String myName ) {
+		super( myName );
+		type = Netlist.MIN;
+	}
+
 	/** initializer scans and processes one min gate
 	 *  @param sc Scanner from which gate description is read
 	 *  @param myName the value to be put in the name field
 	 */
 	MinGate( Scanner sc, String myName ) {
 		// the text "gate myName min" has already been scanned
-		super( myName );
+		this( myName );
 
 		// get inputs
 		if (sc.hasNextInt()) {
@@ -39,12 +47,15 @@ public class MinGate extends Gate {
 
         /** Return the new logic value, the min of the input values.
          *  Every subclass of gate must define this.
+         *  @param inputCounts holds how many inputs have each value.
+         *  @param b the index of the count of false inputs.
          *  @return the new logic value, a function of <TT>inputCounts</TT>;
          */
-	protected int logicValue() {
-		// find the minimum of all the inputs
-		int newOutput = 0;
-		while (inputCounts[newOutput] == 0) newOutput++;
-		return newOutput;
+	static int logicValue( int[] inputCounts, int b ) {
+		// find the minimum of all the inputs; with no inputs at all,
+		// the output stays unknown, as it always has
+		if (inputCounts[b] != 0) return 0;
+		if ((inputCounts[b + 1] == 0) && (inputCounts[b + 2] != 0)) return 2;
+		return 1;
 	}
 }
@@ -0,0 +1,374 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** A subcircuit, defined once and used any number of times.
+ *
+ *  A module is defined by lines of the form
+ *  <pre>
+ *  module NAME
+ *  gate ...
+ *  wire ...
+ *  instance ...
+ *  end
+ *  </pre>
+ *  and used by lines of the form <code>instance NAME MODULE</code>,
+ *  either at the top level or within another module.  The gates of an
+ *  instance are named by the name of the instance, a dot, and their name
+ *  in the module, such as <code>alu3.carry</code>, and wires may use these
+ *  names to connect to them from outside.
+ *
+ *  When its definition ends, a module is flattened into arrays, with the
+ *  gates of the instances within it numbered in place, so no gate or wire
+ *  objects are kept for it.  Instances are just a name, the module and
+ *  where their gates start, and only the gates that are named from
+ *  outside become gate objects, see {@link Port}.  Reading a circuit thus
+ *  takes time and memory in proportion to the modules and to what is
+ *  wired outside them, not to the number of gates in all the instances.
+ *
+ *  @author Ryan Boehm
+ *  @see TernaryLogic
+ *  @see Netlist
+ */
+final class Module {
+	/** the name of the module, or null for the top level */
+	final String name;
+
+	// indexed by gate, in order of definition, with the gates of each
+	// instance in place of the instance
+	final String[] gateName;	// the name within the module, or
+					// null for the top level instances
+	final byte[] type;
+	final int[] inputs;
+	final float[] delay;
+	final byte[][] table;		// the truth table of table gates
+	final int[] incount;		// the inputs wired within the module
+
+	// indexed by wire, in order of definition, with the wires of each
+	// instance first
+	final int[] wireSrc;
+	final int[] wireDst;
+	final float[] wireDelay;
+
+	/** the gates with fewer inputs wired within the module than they
+	 *  need, which must be wired from outside; set by flatten
+	 */
+	int[] open;
+
+	/** the gates by name, for the names used from outside */
+	private final HashMap <String, Integer> local;
+
+	/** Make room for a flattened module.
+	 *  @param n	the name.
+	 *  @param g	the number of gates.
+	 *  @param w	the number of wires.
+	 *  @param named	true if the gates are looked up by name.
+	 */
+	private Module( String n, int g, int w, boolean named ) {
+		name = n;
+		gateName = new String[g];
+		type = new byte[g];
+		inputs = new int[g];
+		delay = new float[g];
+		table = new byte[g][];
+		incount = new int[g];
+		wireSrc = new int[w];
+		wireDst = new int[w];
+		wireDelay = new float[w];
+		local = named ? new HashMap <String, Integer> () : null;
+	}
+
+	/** the number of gates in the module, including those of instances */
+	int size() {
+		return type.length;
+	}
+
+	/** Look up a gate by its name within the module.
+	 *  @param s	the name, such as <code>carry</code> or
+	 *  <code>fa1.sum</code>.
+	 *  @return	the number of the gate, or -1 if there is none.
+	 */
+	int find( String s ) {
+		final Integer g = local.get( s );
+		return (g == null) ? -1 : g;
+	}
+
+	/** The smallest timebase in which the delays are exact.
+	 *  @return	a power of ten.
+	 *  @see Netlist#timebase(long,float[])
+	 */
+	long timebase() {
+		return Netlist.timebase( Netlist.timebase( 1, delay ), wireDelay );
+	}
+
+	/** A use of a module */
+	static final class Instance {
+		final String name;
+		final Module module;
+
+		/** the number of gates defined before it in its scope */
+		final int at;
+
+		/** where its gates start, once flattened, see Module.flatten */
+		int base = -1;
+
+		/** the gates named from outside, by number within the module */
+		private HashMap <Integer, Port> ports = null;
+
+		/** Construct an instance.
+		 *  @param n	the name.
+		 *  @param m	the module.
+		 *  @param a	the number of gates defined before it.
+		 */
+		Instance( String n, Module m, int a ) {
+			name = n;
+			module = m;
+			at = a;
+		}
+
+		/** Get the gate object for a gate of the instance, making one
+		 *  the first time it is named.
+		 *  @param s	the name of the gate within the module.
+		 *  @return	the gate, or null if the module has no such gate.
+		 */
+		Gate port( String s ) {
+			final int g = module.find( s );
+			if (g < 0) return null;
+			if (ports == null) ports = new HashMap <Integer, Port> ();
+			Port p = ports.get( g );
+			if (p == null) {
+				p = new Port( this, g );
+				ports.put( g, p );
+			}
+			return p;
+		}
+
+		/** Sanity check that every gate of the instance is fully wired
+		 *  @see Gate#check
+		 */
+		void check() {
+			for ( int g: module.open ) {
+				if ((ports == null) || !ports.containsKey( g )) {
+					Errors.warn(
+						"gate " + name + "." + module.gateName[g] +
+						" -- has missing inputs."
+					);
+				}
+			}
+			if (ports != null) for ( Port p: ports.values() ) p.check();
+		}
+
+		/** Convert this instance to the format used for input
+		 *  @return	the textual description of the instance
+		 */
+		public String toString() {
+			return "instance " + name + " " + module.name;
+		}
+	}
+
+	/** A gate of an instance, named from outside it.  The inputs wired
+	 *  within the module count towards its inputs.
+	 */
+	static final class Port extends Gate {
+		private final int local;	// its number within the module
+
+		/** Construct a port.
+		 *  @param i	the instance.
+		 *  @param g	the number of the gate within the module.
+		 */
+		Port( Instance i, int g ) {
+			super( i.name + "." + i.module.gateName[g] );
+			local = g;
+			type = i.module.type[g];
+			inputs = i.module.inputs[g];
+			delay = i.module.delay[g];
+			incount = i.module.incount[g];
+			index = i.base + g;
+		}
+
+		/** get a representation for this Gate in the form used for input
+		 *  @return the representation as a string
+		 */
+		public String toString() {
+			return this.myString();
+		}
+	}
+
+	/** The gates, wires and instances defined at one level, either the
+	 *  top level of the circuit or the body of a module being read.
+	 */
+	static final class Scope {
+		/** the name of the module, or null for the top level */
+		final String name;
+
+		final List <Gate> gates;
+		final List <Wire> wires;
+		final NameIndex index;
+		final ArrayList <Instance> instances = new ArrayList <Instance> ();
+		private final HashMap <String, Instance> instanceIndex
+			= new HashMap <String, Instance> ();
+
+		/** Construct a scope.
+		 *  @param n	the name of the module, or null for the top.
+		 *  @param g	where to keep the gates.
+		 *  @param w	where to keep the wires.
+		 *  @param i	where to index the gates.
+		 */
+		Scope( String n, List <Gate> g, List <Wire> w, NameIndex i ) {
+			name = n;
+			gates = g;
+			wires = w;
+			index = i;
+		}
+
+		/** Look up a gate, or a gate of an instance, by name.
+		 *  @param s	the name, such as <code>g</code> or
+		 *  <code>alu3.carry</code>.
+		 *  @return	the gate, or null if there is none.
+		 */
+		Gate find( String s ) {
+			final Gate g = index.find( s );
+			final int dot = s.indexOf( '.' );
+			if ((g != null) || (dot < 0)) return g;
+			final Instance i = instanceIndex.get( s.substring( 0, dot ) );
+			if (i == null) return null;
+			return i.port( s.substring( dot + 1 ) );
+		}
+
+		/** Look up an instance by name.
+		 *  @param s	the name.
+		 *  @return	the instance, or null if there is none.
+		 */
+		Instance findInstance( String s ) {
+			return instanceIndex.get( s );
+		}
+
+		/** Add an instance, after the gates defined so far.
+		 *  @param n	its name, which must not be a redefinition.
+		 *  @param m	the module.
+		 */
+		void addInstance( String n, Module m ) {
+			final Instance i = new Instance( n, m, gates.size() );
+			instances.add( i );
+			instanceIndex.put( n, i );
+		}
+
+		/** forget everything defined in the scope */
+		void clear() {
+			gates.clear();
+			wires.clear();
+			index.clear();
+			instances.clear();
+			instanceIndex.clear();
+		}
+	}
+
+	/** Flatten what was defined in a scope into arrays, numbering the
+	 *  gates and the instances in order of definition.  This also sets
+	 *  the index of each gate and the base of each instance.
+	 *  @param s	the scope.
+	 *  @param named	true to name every gate and index the names, as a
+	 *  module needs; false to name only the gates defined in the scope.
+	 *  @return	the flattened module; warnings are left to the caller.
+	 */
+	static Module flatten( Scope s, boolean named ) {
+		int gates = s.gates.size();
+		int wires = 0;
+		for ( Wire w: s.wires ) {
+			if ((w.source != null) && (w.destination != null)) wires++;
+		}
+		for ( Instance i: s.instances ) {
+			gates = gates + i.module.size();
+			wires = wires + i.module.wireSrc.length;
+		}
+		final Module m = new Module( s.name, gates, wires, named );
+
+		// gates with the same truth table share it
+		final HashMap <String, byte[]> tables
+			= new HashMap <String, byte[]> ();
+		int g = 0;
+		int next = 0; // the next instance to place
+		int at = 0;
+		for ( Gate x: s.gates ) {
+			while ((next < s.instances.size())
+			&&     (s.instances.get( next ).at == at)) {
+				g = m.place( s.instances.get( next++ ), g, named );
+			}
+			x.index = g;
+			m.gateName[g] = x.name;
+			m.type[g] = x.type;
+			m.inputs[g] = x.inputs;
+			m.delay[g] = x.delay;
+			if ((x.type == Netlist.TABLE) && (((TableGate)x).digits != null)) {
+				final TableGate t = (TableGate)x;
+				m.table[g] = tables.computeIfAbsent(
+					t.digits, d -> t.lookupTable()
+				);
+			}
+			if (named) m.local.put( x.name, g );
+			g = g + 1;
+			at = at + 1;
+		}
+		while (next < s.instances.size()) {
+			g = m.place( s.instances.get( next++ ), g, named );
+		}
+
+		// the wires within instances, then those of the scope
+		int e = 0;
+		for ( Instance i: s.instances ) {
+			final Module sub = i.module;
+			for (int k = 0; k < sub.wireSrc.length; k++) {
+				m.wireSrc[e] = i.base + sub.wireSrc[k];
+				m.wireDst[e] = i.base + sub.wireDst[k];
+				m.wireDelay[e] = sub.wireDelay[k];
+				e = e + 1;
+			}
+		}
+		for ( Wire w: s.wires ) {
+			if ((w.source == null) || (w.destination == null)) continue;
+			m.wireSrc[e] = w.source.index;
+			m.wireDst[e] = w.destination.index;
+			m.wireDelay[e] = w.delay;
+			m.incount[w.destination.index]++;
+			e = e + 1;
+		}
+
+		int count = 0;
+		for (g = 0; g < gates; g++) {
+			if (m.incount[g] < m.inputs[g]) count++;
+		}
+		m.open = new int[count];
+		count = 0;
+		for (g = 0; g < gates; g++) {
+			if (m.incount[g] < m.inputs[g]) m.open[count++] = g;
+		}
+		return m;
+	}
+
+	/** Place the gates of an instance while flattening.
+	 *  @param i	the instance.
+	 *  @param g	the number of its first gate.
+	 *  @param named	true to name its gates.
+	 *  @return	the number of the gate after its last.
+	 */
+	private int place( Instance i, int g, boolean named ) {
+		final Module sub = i.module;
+		final int n = sub.size();
+		i.base = g;
+		if (i.ports != null) {
+			for ( Port p: i.ports.values() ) p.index = g + p.local;
+		}
+		System.arraycopy( sub.type, 0, type, g, n );
+		System.arraycopy( sub.inputs, 0, inputs, g, n );
+		System.arraycopy( sub.delay, 0, delay, g, n );
+		System.arraycopy( sub.table, 0, table, g, n );
+		System.arraycopy( sub.incount, 0, incount, g, n );
+		if (named) {
+			for (int k = 0; k < n; k++) {
+				gateName[g + k] = i.name + "." + sub.gateName[k];
+				local.put( gateName[g + k], g + k );
+			}
+		}
+		return g + n;
+	}
+}
@@ -0,0 +1,123 @@
+/** Hash index of gates by name.
+ *
+ *  An open addressing table with linear probing, so that looking up a
+ *  gate takes constant time no matter how many gates there are.
+ *  Names hash the same way {@link String#hashCode} does, one character
+ *  at a time, so names need not be strings to be looked up.
+ *
+ *  @author Ryan Boehm
+ *  @see TernaryLogic#findGate(String)
+ */
+final class NameIndex {
+	private Gate[] table = new Gate[64];	// length is a power of two
+	private int count = 0;			// number of gates in table
+
+	// statistics, for reporting load performance; these are only
+	// approximate when several threads look up names at once
+	private long lookups = 0;
+	private long probes = 0;
+
+	/** Spread the bits of a hash code to pick a starting slot.
+	 *  @param h	a hash code computed like String.hashCode.
+	 *  @return	a slot in table.
+	 */
+	private int slot( int h ) {
+		h = h * 0x9E3779B9; // Fibonacci hashing
+		return (h ^ (h >>> 16)) & (table.length - 1);
+	}
+
+	/** look up a gate by name
+	 *  @param s	the name of the gate.
+	 *  @return	the gate with that name, or null if there is none.
+	 */
+	Gate find( String s ) {
+		lookups = lookups + 1;
+		int i = slot( s.hashCode() );
+		for (;;) {
+			probes = probes + 1;
+			final Gate g = table[i];
+			if ((g == null) || g.name.equals( s )) return g;
+			i = (i + 1) & (table.length - 1);
+		}
+	}
+
+	/** look up a gate by a name held as ASCII text in an array
+	 *  @param b	the array.
+	 *  @param off	the index of the first character of the name.
+	 *  @param len	the length of the name.
+	 *  @return	the gate with that name, or null if there is none.
+	 */
+	Gate find( byte[] b, int off, int len ) {
+		lookups = lookups + 1;
+		int h = 0;
+		for (int j = 0; j < len; j++) h = 31 * h + b[off + j];
+		int i = slot( h );
+		for (;;) {
+			probes = probes + 1;
+			final Gate g = table[i];
+			if ((g == null) || matches( g.name, b, off, len )) return g;
+			i = (i + 1) & (table.length - 1);
+		}
+	}
+
+	/** does a name match text held in an array?
+	 *  @param s	the name.
+	 *  @param b	the array.
+	 *  @param off	the index of the first character of the text.
+	 *  @param len	the length of the text.
+	 *  @return	true if they are the same.
+	 */
+	private static boolean matches(
+		String s, byte[] b, int off, int len
+	) {
+		if (s.length() != len) return false;
+		for (int j = 0; j < len; j++) {
+			if (s.charAt( j ) != b[off + j]) return false;
+		}
+		return true;
+	}
+
+	/** add a gate; there must not be a gate with the same name already.
+	 *  @param g	the new gate.
+	 */
+	void add( Gate g ) {
+		if (2 * (count + 1) > table.length) grow();
+		insert( g );
+		count = count + 1;
+	}
+
+	/** forget all the gates */
+	void clear() {
+		java.util.Arrays.fill( table, null );
+		count = 0;
+	}
+
+	/** put a gate in the first free slot of its probe sequence
+	 *  @param g	the gate.
+	 */
+	private void insert( Gate g ) {
+		int i = slot( g.name.hashCode() );
+		while (table[i] != null) i = (i + 1) & (table.length - 1);
+		table[i] = g;
+	}
+
+	/** double the table size, keeping it at most half full */
+	private void grow() {
+		final Gate[] old = table;
+		table = new Gate[old.length * 2];
+		for ( Gate g: old ) {
+			if (g != null) insert( g );
+		}
+	}
+
+	/** Describe how well the index has performed.
+	 *  @return	the text of the report.
+	 */
+	String statistics() {
+		return(
+			count + " names, " + lookups + " lookups, " +
+			(lookups == 0 ? 0.0 : (double)probes / lookups) +
+			" probes per lookup"
+		);
+	}
+}
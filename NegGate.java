@@ -5,15 +5,23 @@ import java.util.Scanner;
  *  @see Gate
  */
 public class NegGate extends Gate {
+	/** initializer for a neg gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	NegGate( String myName ) {
+		super( myName );
+		type = Netlist.NEG;
+
+		inputs = 1; // it is a one-input gate
+	}
+
 	/** initializer scans and processes one neg gate
 	 *  @param sc Scanner from which gate description is read
 	 *  @param myName the value to be put in the name field
 	 */
 	NegGate( Scanner sc, String myName ) {
 		// the text "gate myName min" has already been scanned
-		super( myName );
-
-		inputs = 1; // it is a one-input gate
+		this( myName );
 
 		this.finishGate( sc );
 	}
@@ -31,12 +39,14 @@ public class NegGate extends Gate {
 
         /** Return the new logic value, 2 minus the input value.
          *  Every subclass of gate must define this.
+         *  @param inputCounts holds how many inputs have each value.
+         *  @param b the index of the count of false inputs.
          *  @return the new logic value, a function of <TT>inputCounts</TT>;
          */
-	protected int logicValue() {
+	static int logicValue( int[] inputCounts, int b ) {
 		// Warning this is mildly tricky code
 		int newOutput = 2;
-		while (inputCounts[2 - newOutput] == 0) newOutput--;
+		while (inputCounts[b + 2 - newOutput] == 0) newOutput--;
 		return newOutput;
 	}
 }
@@ -0,0 +1,569 @@
+import java.util.HashMap;
+import java.util.List;
+
+/** A checked network frozen into flat arrays for simulation.
+ *
+ *  Gates are numbered in the order they were defined.  The wires leaving
+ *  each gate are stored contiguously, in compressed sparse row form, so
+ *  the wires leaving gate <code>g</code> are numbered from
+ *  <code>fanout[g]</code> up to but not including
+ *  <code>fanout[g + 1]</code>.
+ *  Table gates keep the values of their inputs packed into one number,
+ *  the sum over inputs i of the value of input i times weight i, where
+ *  the weight of the last input is 1 and each input weighs 3 times the
+ *  next; this indexes their truth tables.
+ *  The gates of module instances are numbered in place of the instance,
+ *  and their names are only made when asked for, see {@link #name(int)}.
+ *  Times are counted in ticks, integer fractions of the time unit of the
+ *  input file, so they add up exactly however long a simulation runs.
+ *  Nothing here changes during simulation; see {@link Simulation}
+ *  for the state of a running circuit.
+ *
+ *  @author Ryan Boehm
+ *  @see Gate
+ *  @see Wire
+ *  @see Simulation
+ */
+final class Netlist {
+	// gate type codes, see Gate.type
+	static final byte MIN = 0;
+	static final byte MAX = 1;
+	static final byte NEG = 2;
+	static final byte ISFALSE = 3;
+	static final byte ISTRUE = 4;
+	static final byte ISUNKNOWN = 5;
+	static final byte TABLE = 6;
+	static final byte INPUT = 7;
+
+	/** the name of each gate type in the input file, by type code */
+	static final String[] typeName = {
+		"min", "max", "neg", "isfalse", "istrue", "isunknown", "table",
+		"input"
+	};
+
+	final int gateCount;	// number of gates
+	final int wireCount;	// number of wires
+	final long timebase;	// ticks per unit of time
+
+	// indexed by gate
+	final String[] name;	// the name of each gate, or null for the
+				// gates of instances, see name(int)
+	final byte[] type;	// the type code of each gate
+	final int[] inputs;	// the number of inputs of each gate
+	final long[] delay;	// the delay of each gate, in ticks
+	final int[] fanout;	// the first wire leaving each gate, and one more
+	final byte[][] table;	// the truth table of each table gate, or null
+
+	// indexed by wire
+	final int[] wireDst;	// the gate each wire goes to
+	final long[] wireDelay;	// the delay of each wire, in ticks
+	final int[] wireWeight;	// the weight of each input of a table gate,
+				// or 0 for wires into other gates
+
+	/** the instances of modules, in order of their gates */
+	final Module.Instance[] instances;
+
+	// the wires leaving each gate in groups with the same delay, for
+	// fused mode; null until made by groupFanout
+	int[] groups;		// the first group of each gate, and one more
+	long[] groupDelay;	// the delay of each group, in ticks
+	int[] groupFirst;	// the first member of each group, and one more
+	int[] memberDst;	// the gate each member goes to, as wireDst
+	int[] memberWeight;	// the weight of each member, as wireWeight
+
+	/** no instances */
+	private static final Module.Instance[] NONE = new Module.Instance[0];
+
+	/** Construct an empty netlist of a given size
+	 *  @param gates	the number of gates.
+	 *  @param wires	the number of wires.
+	 *  @param ticks	the number of ticks per unit of time.
+	 *  @param inst	the instances of modules.
+	 */
+	private Netlist(
+		int gates, int wires, long ticks, Module.Instance[] inst
+	) {
+		gateCount = gates;
+		wireCount = wires;
+		timebase = ticks;
+		name = new String[gates];
+		type = new byte[gates];
+		inputs = new int[gates];
+		delay = new long[gates];
+		fanout = new int[gates + 1];
+		table = new byte[gates][];
+		wireDst = new int[wires];
+		wireDelay = new long[wires];
+		wireWeight = new int[wires];
+		instances = inst;
+	}
+
+	/** Construct a netlist around existing arrays, with no delays yet
+	 *  @param name	the name of each gate.
+	 *  @param type	the type code of each gate.
+	 *  @param inputs	the number of inputs of each gate.
+	 *  @param fanout	the first wire leaving each gate, and one more.
+	 *  @param table	the truth table of each table gate, or null.
+	 *  @param wireDst	the gate each wire goes to.
+	 *  @param wireWeight	the weight of each input of a table gate.
+	 *  @param ticks	the number of ticks per unit of time.
+	 */
+	private Netlist(
+		String[] name, byte[] type, int[] inputs, int[] fanout,
+		byte[][] table, int[] wireDst, int[] wireWeight, long ticks
+	) {
+		gateCount = name.length;
+		wireCount = wireDst.length;
+		timebase = ticks;
+		this.name = name;
+		this.type = type;
+		this.inputs = inputs;
+		delay = new long[gateCount];
+		this.fanout = fanout;
+		this.table = table;
+		this.wireDst = wireDst;
+		wireDelay = new long[wireCount];
+		this.wireWeight = wireWeight;
+		instances = NONE;
+	}
+
+	/** Freeze a checked network.
+	 *  Call this only if <code>checkNetwork</code> found no errors,
+	 *  because every wire must have both a source and destination.
+	 *  @param gates	the gates of the network, in order of definition.
+	 *  @param wires	the wires of the network, in order of definition.
+	 *  @param ticks	the number of ticks per unit of time.
+	 *  @return	the compiled network.
+	 *  @see TernaryLogic#checkNetwork
+	 *  @see #timebase(List,List,float[])
+	 */
+	static Netlist compile(
+		List <Gate> gates, List <Wire> wires, long ticks
+	) {
+		final Netlist n = new Netlist(
+			gates.size(), wires.size(), ticks, NONE
+		);
+
+		// gates with the same truth table share it
+		final HashMap <String, byte[]> tables
+			= new HashMap <String, byte[]> ();
+		int i = 0;
+		for ( Gate g: gates ) {
+			g.index = i;
+			n.name[i] = g.name;
+			n.type[i] = g.type;
+			n.inputs[i] = g.inputs;
+			n.delay[i] = n.ticks( g.delay );
+			if (g.type == TABLE) {
+				final TableGate t = (TableGate)g;
+				n.table[i] = tables.computeIfAbsent(
+					t.digits, d -> t.lookupTable()
+				);
+			}
+			i = i + 1;
+		}
+
+		// count the wires leaving each gate, then make that cumulative
+		for ( Wire w: wires ) {
+			n.fanout[w.source.index + 1]++;
+		}
+		for (i = 0; i < n.gateCount; i++) {
+			n.fanout[i + 1] = n.fanout[i + 1] + n.fanout[i];
+		}
+
+		// place each wire, keeping the order of definition per gate
+		// and number the inputs of table gates in order of definition
+		final int[] next = java.util.Arrays.copyOf( n.fanout, n.gateCount );
+		final int[] weight = new int[n.gateCount];
+		for (i = 0; i < n.gateCount; i++) {
+			if (n.type[i] == TABLE) weight[i] = n.table[i].length;
+		}
+		for ( Wire w: wires ) {
+			final int e = next[w.source.index]++;
+			final int d = w.destination.index;
+			n.wireDst[e] = d;
+			n.wireDelay[e] = n.ticks( w.delay );
+			weight[d] = weight[d] / 3;
+			n.wireWeight[e] = weight[d];
+		}
+
+		return n;
+	}
+
+	/** Freeze a checked network that uses modules.
+	 *  Call this only if <code>checkNetwork</code> found no errors.
+	 *  @param top	the top level of the network, flattened with its
+	 *  instances in place, see Module.flatten.
+	 *  @param inst	the instances at the top level, in order.
+	 *  @param ticks	the number of ticks per unit of time.
+	 *  @return	the compiled network, which names the gates of instances
+	 *  only when asked to.
+	 */
+	static Netlist compile(
+		Module top, Module.Instance[] inst, long ticks
+	) {
+		final Netlist n = new Netlist(
+			top.size(), top.wireSrc.length, ticks, inst
+		);
+		System.arraycopy( top.gateName, 0, n.name, 0, n.gateCount );
+		System.arraycopy( top.type, 0, n.type, 0, n.gateCount );
+		System.arraycopy( top.inputs, 0, n.inputs, 0, n.gateCount );
+		System.arraycopy( top.table, 0, n.table, 0, n.gateCount );
+		for (int g = 0; g < n.gateCount; g++) {
+			n.delay[g] = n.ticks( top.delay[g] );
+		}
+
+		for ( int src: top.wireSrc ) n.fanout[src + 1]++;
+		for (int g = 0; g < n.gateCount; g++) {
+			n.fanout[g + 1] = n.fanout[g + 1] + n.fanout[g];
+		}
+
+		// place each wire as compile does for gate and wire objects
+		final int[] next = java.util.Arrays.copyOf( n.fanout, n.gateCount );
+		final int[] weight = new int[n.gateCount];
+		for (int g = 0; g < n.gateCount; g++) {
+			if (n.type[g] == TABLE) weight[g] = n.table[g].length;
+		}
+		for (int w = 0; w < n.wireCount; w++) {
+			final int e = next[top.wireSrc[w]]++;
+			final int d = top.wireDst[w];
+			n.wireDst[e] = d;
+			n.wireDelay[e] = n.ticks( top.wireDelay[w] );
+			weight[d] = weight[d] / 3;
+			n.wireWeight[e] = weight[d];
+		}
+
+		return n;
+	}
+
+	/** Freeze a network held in flat arrays, as read from a cache.
+	 *  The arrays are laid out as in a netlist, but with delays in
+	 *  units of time; they become part of the netlist.
+	 *  @param name	the name of each gate.
+	 *  @param type	the type code of each gate.
+	 *  @param inputs	the number of inputs of each gate.
+	 *  @param delay	the delay of each gate.
+	 *  @param fanout	the first wire leaving each gate, and one more.
+	 *  @param table	the truth table of each table gate, or null.
+	 *  @param wireDst	the gate each wire goes to.
+	 *  @param wireDelay	the delay of each wire.
+	 *  @param wireWeight	the weight of each input of a table gate.
+	 *  @param ticks	the number of ticks per unit of time.
+	 *  @return	the compiled network.
+	 *  @see NetlistCache
+	 */
+	static Netlist compile(
+		String[] name, byte[] type, int[] inputs, float[] delay,
+		int[] fanout, byte[][] table, int[] wireDst, float[] wireDelay,
+		int[] wireWeight, long ticks
+	) {
+		final Netlist n = new Netlist(
+			name, type, inputs, fanout, table, wireDst, wireWeight, ticks
+		);
+		for (int g = 0; g < n.gateCount; g++) {
+			n.delay[g] = n.ticks( delay[g] );
+		}
+		for (int e = 0; e < n.wireCount; e++) {
+			n.wireDelay[e] = n.ticks( wireDelay[e] );
+		}
+		return n;
+	}
+
+	/** Copy the circuit, leaving out some of the wires.
+	 *  @param dropped	for each wire, true if it is to be left out.
+	 *  @return	the copy, with the same gates.
+	 */
+	Netlist without( boolean[] dropped ) {
+		int wires = 0;
+		for ( boolean d: dropped ) if (!d) wires++;
+		final Netlist n = new Netlist( gateCount, wires, timebase, instances );
+		System.arraycopy( name, 0, n.name, 0, gateCount );
+		System.arraycopy( type, 0, n.type, 0, gateCount );
+		System.arraycopy( inputs, 0, n.inputs, 0, gateCount );
+		System.arraycopy( delay, 0, n.delay, 0, gateCount );
+		System.arraycopy( table, 0, n.table, 0, gateCount );
+
+		int w = 0;
+		for (int g = 0; g < gateCount; g++) {
+			n.fanout[g] = w;
+			for (int e = fanout[g]; e < fanout[g + 1]; e++) {
+				if (dropped[e]) continue;
+				n.wireDst[w] = wireDst[e];
+				n.wireDelay[w] = wireDelay[e];
+				n.wireWeight[w] = wireWeight[e];
+				w = w + 1;
+			}
+		}
+		n.fanout[gateCount] = w;
+		return n;
+	}
+
+	/** the tables of constant gates, by value, see subset */
+	private static final byte[][] CONSTANT = { { 0 }, { 1 }, { 2 } };
+
+	/** Copy some of the gates of the circuit, with the wires between them
+	 *  that are not left out, making some of the gates constant.  A
+	 *  constant is a table gate with no inputs, so its output changes
+	 *  from unknown to its value after its delay, and never again.
+	 *  @param order	the gates to copy, in their new order.
+	 *  @param dropped	for each wire, true if it is to be left out; the
+	 *  wires into constants and into gates not copied must be.
+	 *  @param constant	for each gate, the value it is to take if it is
+	 *  to be made constant, or else -1.
+	 *  @param at	for each constant, when it takes its value, in ticks.
+	 *  @return	the copy, with names for the gates of instances made.
+	 */
+	Netlist subset(
+		int[] order, boolean[] dropped, byte[] constant, long[] at
+	) {
+		int wires = 0;
+		for ( int g: order ) {
+			for (int e = fanout[g]; e < fanout[g + 1]; e++) {
+				if (!dropped[e]) wires++;
+			}
+		}
+		final int[] map = new int[gateCount];
+		for (int i = 0; i < order.length; i++) map[order[i]] = i;
+
+		final Netlist n = new Netlist( order.length, wires, timebase, NONE );
+		int w = 0;
+		for (int i = 0; i < order.length; i++) {
+			final int g = order[i];
+			n.name[i] = name( g );
+			if (constant[g] >= 0) {
+				n.type[i] = TABLE;
+				n.table[i] = CONSTANT[constant[g]];
+				n.delay[i] = at[g];
+			} else {
+				n.type[i] = type[g];
+				n.inputs[i] = inputs[g];
+				n.table[i] = table[g];
+				n.delay[i] = delay[g];
+			}
+			n.fanout[i] = w;
+			for (int e = fanout[g]; e < fanout[g + 1]; e++) {
+				if (dropped[e]) continue;
+				n.wireDst[w] = map[wireDst[e]];
+				n.wireDelay[w] = wireDelay[e];
+				n.wireWeight[w] = wireWeight[e];
+				w = w + 1;
+			}
+		}
+		n.fanout[order.length] = w;
+		return n;
+	}
+
+	/** Group the wires leaving each gate by their delay, so that a change
+	 *  of its output can reach all the gates of a group through one event,
+	 *  see Simulation.fused.  Within each group, the wires keep their
+	 *  order, so the gates see the change in the same order as they would
+	 *  through an event per wire.  This does nothing if they are grouped.
+	 */
+	void groupFanout() {
+		if (groups != null) return;
+
+		// rank the delays, so that a wire sorts by the rank of its delay
+		// and then its place among the wires leaving its gate
+		long[] delays = wireDelay.clone();
+		java.util.Arrays.sort( delays );
+		int distinct = 0;
+		for (int e = 0; e < wireCount; e++) {
+			if ((e == 0) || (delays[e] != delays[e - 1])) {
+				delays[distinct++] = delays[e];
+			}
+		}
+		delays = java.util.Arrays.copyOf( delays, distinct );
+
+		final int[] g0 = new int[gateCount + 1];
+		final long[] d0 = new long[wireCount];
+		final int[] f0 = new int[wireCount + 1];
+		memberDst = new int[wireCount];
+		memberWeight = new int[wireCount];
+		long[] keys = new long[16];
+		int k = 0;
+		for (int g = 0; g < gateCount; g++) {
+			g0[g] = k;
+			final int first = fanout[g];
+			final int n = fanout[g + 1] - first;
+			if (keys.length < n) keys = new long[n];
+			for (int i = 0; i < n; i++) {
+				final long rank = java.util.Arrays.binarySearch(
+					delays, wireDelay[first + i]
+				);
+				keys[i] = (rank << 32) | i;
+			}
+			java.util.Arrays.sort( keys, 0, n );
+			for (int i = 0; i < n; i++) {
+				final int e = first + (int)keys[i];
+				if ((i == 0) || ((keys[i] >>> 32) != (keys[i - 1] >>> 32))) {
+					d0[k] = wireDelay[e];
+					f0[k] = first + i;
+					k = k + 1;
+				}
+				memberDst[first + i] = wireDst[e];
+				memberWeight[first + i] = wireWeight[e];
+			}
+		}
+		g0[gateCount] = k;
+		f0[k] = wireCount;
+		groupDelay = java.util.Arrays.copyOf( d0, k );
+		groupFirst = java.util.Arrays.copyOf( f0, k + 1 );
+		groups = g0;
+	}
+
+	/** Get the name of a gate; the names of the gates of instances are
+	 *  put together from the name of the instance each time.
+	 *  @param g	the gate.
+	 *  @return	its name, such as <code>alu3.carry</code>.
+	 */
+	String name( int g ) {
+		if (name[g] != null) return name[g];
+
+		// find the last instance starting at or before g
+		int lo = 0;
+		int hi = instances.length - 1;
+		while (lo < hi) {
+			final int mid = (lo + hi + 1) >>> 1;
+			if (instances[mid].base <= g) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		final Module.Instance i = instances[lo];
+		return i.name + "." + i.module.gateName[g - i.base];
+	}
+
+	/** Convert a time to ticks, rounding to the nearest tick.
+	 *  @param t	the time, in the units of the input file.
+	 *  @return	the number of ticks, at most Long.MAX_VALUE.
+	 */
+	long ticks( double t ) {
+		return Math.round( t * timebase );
+	}
+
+	/** Is a time a whole number of ticks, as near as a double can tell?
+	 *  @param t	the time, in the units of the input file.
+	 *  @return	true if ticks( t ) gives it without rounding.
+	 */
+	boolean exact( double t ) {
+		final double x = t * timebase;
+		return Math.abs( x - Math.rint( x ) ) <= Math.ulp( t ) * timebase;
+	}
+
+	/** the finest timebase that {@code timebase} picks */
+	private static final long MAX_TIMEBASE = 1000000000L;
+
+	/** Pick the number of ticks per unit of time: the smallest power of
+	 *  ten in which all the delays, and any other times given, are whole
+	 *  numbers of ticks, as near as a float can tell.
+	 *  @param gates	the gates of the network.
+	 *  @param wires	the wires of the network.
+	 *  @param times	other times that should be exact.
+	 *  @return	the timebase, at most one billion.
+	 */
+	static long timebase(
+		List <Gate> gates, List <Wire> wires, float... times
+	) {
+		long base = 1;
+		for ( Gate g: gates ) base = timebase( base, g.delay );
+		for ( Wire w: wires ) base = timebase( base, w.delay );
+		for ( float t: times ) base = timebase( base, t );
+		return base;
+	}
+
+	/** Refine a timebase until it represents some times exactly.
+	 *  @param base	a power of ten.
+	 *  @param times	the times.
+	 *  @return	a power of ten that is at least base.
+	 */
+	static long timebase( long base, float... times ) {
+		for ( float t: times ) base = timebase( base, t );
+		return base;
+	}
+
+	/** Refine a timebase until it represents a time exactly.
+	 *  @param base	a power of ten.
+	 *  @param t	the time.
+	 *  @return	a power of ten that is at least base.
+	 */
+	private static long timebase( long base, float t ) {
+		for (;;) {
+			final double x = (double)t * base;
+			if (Math.abs( x - Math.rint( x ) ) <= Math.ulp( t ) * base) {
+				return base;
+			}
+			if (base >= MAX_TIMEBASE) return base;
+			base = base * 10;
+		}
+	}
+
+	/** Does the circuit have any table gates?
+	 *  @return	true if so.
+	 */
+	boolean hasTables() {
+		for ( byte t: type ) if (t == TABLE) return true;
+		return false;
+	}
+
+	/** Set up the input state of a gate whose inputs are all unknown.
+	 *  @param g	the gate.
+	 *  @param counts	holds the input state of each gate, three
+	 *  entries each, see logicValue.
+	 */
+	void unknownInputs( int g, int[] counts ) {
+		final int b = 3 * g;
+		counts[b] = counts[b + 2] = 0;
+		counts[b + 1] = inputs[g];
+		if (type[g] == TABLE) { // 1 times the sum of the weights
+			counts[b] = (table[g].length - 1) / 2;
+			counts[b + 1] = 0;
+		}
+	}
+
+	/** Record a change of an input of a gate.
+	 *  @param counts	holds the input state of each gate.
+	 *  @param b	three times the gate.
+	 *  @param weight	the weight of the input, if the gate is a table
+	 *  gate, or else 0, see wireWeight.
+	 *  @param oldv	the old value of the input.
+	 *  @param newv	the new value of the input.
+	 */
+	static void input( int[] counts, int b, int weight, int oldv, int newv ) {
+		if (weight == 0) {
+			counts[b + oldv]--;
+			counts[b + newv]++;
+		} else { // the packed values of a table gate
+			counts[b] = counts[b] + (newv - oldv) * weight;
+		}
+	}
+
+	/** Compute the output of a gate from the state of its inputs.
+	 *  @param g	the gate.
+	 *  @param counts	holds the input state of each gate.
+	 *  @return	the new logic value.
+	 */
+	int value( int g, int[] counts ) {
+		final int t = type[g];
+		if (t == TABLE) return table[g][counts[3 * g]];
+		if (t == INPUT) return 1; // until the stimulus changes it
+		return logicValue( t, counts, 3 * g );
+	}
+
+	/** Compute the output of a gate from how many inputs have each value.
+	 *  @param t	the type code of the gate.
+	 *  @param counts	holds the input counts of the gate.
+	 *  @param b	the index of the count of false inputs in counts.
+	 *  @return	the new logic value.
+	 */
+	static int logicValue( int t, int[] counts, int b ) {
+		switch (t) {
+		case MIN:       return MinGate.logicValue( counts, b );
+		case MAX:       return MaxGate.logicValue( counts, b );
+		case NEG:       return NegGate.logicValue( counts, b );
+		case ISFALSE:   return IsFGate.logicValue( counts, b );
+		case ISTRUE:    return IsTGate.logicValue( counts, b );
+		default:        return IsUGate.logicValue( counts, b );
+		}
+	}
+}
@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Precompiled circuits, cached beside their circuit files.
+ *
+ *  Once a circuit file has been read and checked without errors, the
+ *  circuit can be saved in FILE.tlc in a compact binary form, keyed by a
+ *  SHA-256 hash of the text of the file.  Later runs on the same text map
+ *  the cache into memory and build the {@link Netlist} straight from it,
+ *  without scanning or checking anything.  A cache whose key does not
+ *  match, or that cannot be read, is ignored and then replaced.
+ *
+ *  The cache holds, all little endian:
+ *  <pre>
+ *  header:  "TLC2", gate count, wire count, the timebase the delays
+ *           need, the length of the name pool, the 32 byte key
+ *  gates:   type codes (bytes), input counts, delays (floats),
+ *           the end of each name in the pool
+ *  wires:   fanout (gate count + 1 ints), destinations, delays (floats),
+ *           weights
+ *  names:   the names of the gates, one after another, in ASCII
+ *  tables:  the truth table of each table gate, 3 to the inputs bytes
+ *  </pre>
+ *  Delays are kept in units of time, so a timebase can still be picked
+ *  to suit the print interval and time limit of each run.
+ *
+ *  @author Ryan Boehm
+ *  @see Netlist
+ *  @see TernaryLogic
+ */
+final class NetlistCache {
+	/** the first four bytes of a cache, "TLC2" */
+	private static final int MAGIC = 0x32434c54;
+
+	/** the size of the header */
+	private static final int HEADER = 4 + 4 + 4 + 8 + 4 + 32;
+
+	/** the most that is hashed at once */
+	private static final long SEGMENT = Integer.MAX_VALUE;
+
+	// the circuit, as in Netlist but with delays in units of time
+	private final String[] name;
+	private final byte[] type;
+	private final int[] inputs;
+	private final float[] delay;
+	private final int[] fanout;
+	private final byte[][] table;
+	private final int[] wireDst;
+	private final float[] wireDelay;
+	private final int[] wireWeight;
+
+	/** the smallest timebase in which the delays are exact */
+	final long timebase;
+
+	/** Hold a circuit read from a cache.
+	 *  @param g	the number of gates.
+	 *  @param w	the number of wires.
+	 *  @param base	the smallest timebase in which the delays are exact.
+	 */
+	private NetlistCache( int g, int w, long base ) {
+		name = new String[g];
+		type = new byte[g];
+		inputs = new int[g];
+		delay = new float[g];
+		fanout = new int[g + 1];
+		table = new byte[g][];
+		wireDst = new int[w];
+		wireDelay = new float[w];
+		wireWeight = new int[w];
+		timebase = base;
+	}
+
+	/** the number of gates in the circuit */
+	int gateCount() {
+		return name.length;
+	}
+
+	/** the number of wires in the circuit */
+	int wireCount() {
+		return wireDst.length;
+	}
+
+	/** Freeze the circuit for simulation.
+	 *  @param ticks	the number of ticks per unit of time.
+	 *  @return	the compiled network; call this just once.
+	 */
+	Netlist compile( long ticks ) {
+		return Netlist.compile(
+			name, type, inputs, delay, fanout, table,
+			wireDst, wireDelay, wireWeight, ticks
+		);
+	}
+
+	/** Where the cache of a circuit file goes.
+	 *  @param f	the circuit file.
+	 *  @return	the cache file.
+	 */
+	private static File cacheFile( File f ) {
+		return new File( f.getPath() + ".tlc" );
+	}
+
+	/** Compute the key of a circuit file, the SHA-256 hash of its text.
+	 *  @param f	the circuit file.
+	 *  @return	the 32 byte hash.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	static byte[] key( File f ) throws IOException {
+		final MessageDigest md;
+		try {
+			md = MessageDigest.getInstance( "SHA-256" );
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException( e );
+		}
+		try (
+			FileChannel ch = FileChannel.open(
+				f.toPath(), StandardOpenOption.READ
+			)
+		) {
+			final long size = ch.size();
+			for (long start = 0; start < size; start = start + SEGMENT) {
+				md.update( ch.map(
+					FileChannel.MapMode.READ_ONLY,
+					start, Math.min( SEGMENT, size - start )
+				) );
+			}
+		}
+		return md.digest();
+	}
+
+	/** Read the cache of a circuit file, if it is there and up to date.
+	 *  @param f	the circuit file.
+	 *  @param key	the key of its text, see key.
+	 *  @return	the circuit, or null if there is no usable cache.
+	 */
+	static NetlistCache read( File f, byte[] key ) {
+		final File c = cacheFile( f );
+		if (!c.isFile() || (c.length() > Integer.MAX_VALUE)) return null;
+		try (
+			FileChannel ch = FileChannel.open(
+				c.toPath(), StandardOpenOption.READ
+			)
+		) {
+			final MappedByteBuffer b = ch.map(
+				FileChannel.MapMode.READ_ONLY, 0, ch.size()
+			);
+			b.order( ByteOrder.LITTLE_ENDIAN );
+			if (b.getInt() != MAGIC) return null;
+			final int g = b.getInt();
+			final int w = b.getInt();
+			final long base = b.getLong();
+			final int pool = b.getInt();
+			final byte[] k = new byte[32];
+			b.get( k );
+			if (!Arrays.equals( k, key )) return null;
+			if ((g < 0) || (w < 0) || (pool < 0)) return null;
+
+			final NetlistCache n = new NetlistCache( g, w, base );
+			b.get( n.type );
+			b.asIntBuffer().get( n.inputs );
+			b.position( b.position() + 4 * g );
+			b.asFloatBuffer().get( n.delay );
+			b.position( b.position() + 4 * g );
+			final int[] nameEnd = new int[g];
+			b.asIntBuffer().get( nameEnd );
+			b.position( b.position() + 4 * g );
+			b.asIntBuffer().get( n.fanout );
+			b.position( b.position() + 4 * (g + 1) );
+			b.asIntBuffer().get( n.wireDst );
+			b.position( b.position() + 4 * w );
+			b.asFloatBuffer().get( n.wireDelay );
+			b.position( b.position() + 4 * w );
+			b.asIntBuffer().get( n.wireWeight );
+			b.position( b.position() + 4 * w );
+			final byte[] names = new byte[pool];
+			b.get( names );
+
+			// gates with the same truth table share it, as in Netlist
+			final HashMap <String, byte[]> tables = new HashMap <String, byte[]> ();
+			for (int i = 0; i < g; i++) {
+				if (n.type[i] != Netlist.TABLE) continue;
+				if ((n.inputs[i] < 1)
+				||  (n.inputs[i] > TableGate.MAX_INPUTS)
+				) return null;
+				final byte[] t = new byte[TableGate.size( n.inputs[i] )];
+				b.get( t );
+				n.table[i] = tables.computeIfAbsent(
+					new String( t, StandardCharsets.ISO_8859_1 ), d -> t
+				);
+			}
+
+			int start = 0;
+			for (int i = 0; i < g; i++) {
+				n.name[i] = new String(
+					names, start, nameEnd[i] - start,
+					StandardCharsets.ISO_8859_1
+				);
+				start = nameEnd[i];
+			}
+			return n;
+		} catch (IOException | BufferUnderflowException
+			| IndexOutOfBoundsException | IllegalArgumentException e
+		) {
+			return null; // unreadable, so it will be replaced
+		}
+	}
+
+	/** Save a circuit that has just been compiled; this does nothing if
+	 *  the cache cannot be written, it only makes later runs slower.
+	 *  @param f	the circuit file.
+	 *  @param key	the key of its text, see key.
+	 *  @param n	the compiled circuit.
+	 *  @param gates	the gates it was compiled from.
+	 *  @param wires	the wires it was compiled from.
+	 */
+	static void write(
+		File f, byte[] key, Netlist n, List <Gate> gates, List <Wire> wires
+	) {
+		final float[] delay = new float[n.gateCount];
+		for ( Gate g: gates ) delay[g.index] = g.delay;
+
+		// the wire delays in the order the netlist keeps the wires
+		final float[] wireDelay = new float[n.wireCount];
+		final int[] next = Arrays.copyOf( n.fanout, n.gateCount );
+		for ( Wire w: wires ) wireDelay[next[w.source.index]++] = w.delay;
+
+		write( f, key, n, delay, wireDelay, Netlist.timebase( gates, wires ) );
+	}
+
+	/** Save a circuit that uses modules, as the other write does.
+	 *  @param f	the circuit file.
+	 *  @param key	the key of its text, see key.
+	 *  @param n	the compiled circuit.
+	 *  @param top	the flattened top level it was compiled from.
+	 */
+	static void write( File f, byte[] key, Netlist n, Module top ) {
+		final float[] wireDelay = new float[n.wireCount];
+		final int[] next = Arrays.copyOf( n.fanout, n.gateCount );
+		for (int w = 0; w < n.wireCount; w++) {
+			wireDelay[next[top.wireSrc[w]]++] = top.wireDelay[w];
+		}
+		write( f, key, n, top.delay, wireDelay, top.timebase() );
+	}
+
+	/** Save a circuit, given its delays in units of time.
+	 *  @param f	the circuit file.
+	 *  @param key	the key of its text, see key.
+	 *  @param n	the compiled circuit.
+	 *  @param delay	the delay of each gate.
+	 *  @param wireDelay	the delay of each wire, in netlist order.
+	 *  @param base	the smallest timebase in which these are exact.
+	 */
+	private static void write(
+		File f, byte[] key, Netlist n,
+		float[] delay, float[] wireDelay, long base
+	) {
+		final byte[][] names = new byte[n.gateCount][];
+		long pool = 0;
+		for (int g = 0; g < n.gateCount; g++) {
+			names[g] = n.name( g ).getBytes( StandardCharsets.ISO_8859_1 );
+			pool = pool + names[g].length;
+		}
+		long tables = 0;
+		for (int g = 0; g < n.gateCount; g++) {
+			if (n.type[g] == Netlist.TABLE) {
+				tables = tables + n.table[g].length;
+			}
+		}
+		final long size = HEADER + 17L * n.gateCount + 4
+			+ 12L * n.wireCount + pool + tables;
+		if (size > Integer.MAX_VALUE) return; // too big to map
+
+		final ByteBuffer b = ByteBuffer.allocate( (int)size );
+		b.order( ByteOrder.LITTLE_ENDIAN );
+		b.putInt( MAGIC );
+		b.putInt( n.gateCount );
+		b.putInt( n.wireCount );
+		b.putLong( base );
+		b.putInt( (int)pool );
+		b.put( key );
+
+		b.put( n.type );
+		for ( int i: n.inputs ) b.putInt( i );
+		for ( float d: delay ) b.putFloat( d );
+		int end = 0;
+		for ( byte[] s: names ) {
+			end = end + s.length;
+			b.putInt( end );
+		}
+
+		for ( int i: n.fanout ) b.putInt( i );
+		for ( int i: n.wireDst ) b.putInt( i );
+		for ( float d: wireDelay ) b.putFloat( d );
+		for ( int i: n.wireWeight ) b.putInt( i );
+		for ( byte[] s: names ) b.put( s );
+		for (int g = 0; g < n.gateCount; g++) {
+			if (n.type[g] == Netlist.TABLE) b.put( n.table[g] );
+		}
+		b.flip();
+
+		// write a new file and then replace the old one, so that a cache
+		// being read is never half written
+		final File c = cacheFile( f );
+		final File t = new File( c.getPath() + ".tmp" );
+		try {
+			try (
+				FileChannel ch = FileChannel.open(
+					t.toPath(),
+					StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING
+				)
+			) {
+				while (b.hasRemaining()) ch.write( b );
+			}
+			Files.move(
+				t.toPath(), c.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE
+			);
+		} catch (IOException e) {
+			t.delete();
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/** Byte level scanner for netlist files.
+ *
+ *  This scans the same tokens as {@link ScanSupport} does, but directly
+ *  from an array of bytes, typically copied from a memory mapped file,
+ *  without regular expressions and without making strings for numbers
+ *  or for names that are only looked up.
+ *
+ *  @author Ryan Boehm
+ *  @see ScanSupport
+ *  @see NetlistLoader
+ */
+final class NetlistLexer {
+	private final byte[] buf;	// the text being scanned
+	private int pos;		// the next byte to scan
+	private final int end;		// the end of the text
+
+	/** the number of the line being scanned, counting from 1 */
+	int line;
+
+	// the most recently scanned name, see nextName
+	int nameStart;
+	int nameLength;
+
+	/** Set up to scan part of an array.
+	 *  @param b	the array.
+	 *  @param start	the first byte to scan.
+	 *  @param limit	the end of the text to scan.
+	 *  @param firstLine	the line number of the first line.
+	 */
+	NetlistLexer( byte[] b, int start, int limit, int firstLine ) {
+		buf = b;
+		pos = start;
+		end = limit;
+		line = firstLine;
+	}
+
+	/** Where scanning has got to.
+	 *  @return	the index of the next byte to scan.
+	 */
+	int position() {
+		return pos;
+	}
+
+	/** Is there any more text?
+	 *  @return	true if the end has been reached.
+	 */
+	boolean atEnd() {
+		return pos >= end;
+	}
+
+	/** skip spaces and tabs, but not newlines */
+	private void skipWhitespace() {
+		while (pos < end) {
+			final byte c = buf[pos];
+			if ((c != ' ') && (c != '\t')) break;
+			pos++;
+		}
+	}
+
+	/** Is c a letter?
+	 *  @param c	a byte of text.
+	 *  @return	true if so.
+	 */
+	private static boolean isLetter( int c ) {
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+	}
+
+	/** Is c a digit?
+	 *  @param c	a byte of text.
+	 *  @return	true if so.
+	 */
+	private static boolean isDigit( int c ) {
+		return (c >= '0') && (c <= '9');
+	}
+
+	/** Scan the next name without skipping to the next line;
+	 *  a name is a letter followed by letters, digits or underscores.
+	 *  The name is left in <code>nameStart</code> and
+	 *  <code>nameLength</code>.
+	 *  @return	true if there was a name, false if not.
+	 */
+	boolean nextName() {
+		skipWhitespace();
+		nameStart = pos;
+		if ((pos < end) && isLetter( buf[pos] )) {
+			pos++;
+			while (pos < end) {
+				final byte c = buf[pos];
+				if (!(isLetter( c ) || isDigit( c ) || (c == '_'))) {
+					break;
+				}
+				pos++;
+			}
+		}
+		nameLength = pos - nameStart;
+		return nameLength > 0;
+	}
+
+	/** Scan the next gate name without skipping to the next line;
+	 *  this is a name, or several separated by dots to name a gate
+	 *  within instances, such as <code>alu3.carry</code>.  It is left
+	 *  in <code>nameStart</code> and <code>nameLength</code>.
+	 *  @return	the number of dots in it, or -1 if there was no name.
+	 */
+	int nextPath() {
+		if (!nextName()) return -1;
+		final int start = nameStart;
+		int dots = 0;
+		while ((pos + 1 < end)
+		&&     (buf[pos] == '.') && isLetter( buf[pos + 1] )) {
+			pos++;
+			nextName();
+			dots++;
+		}
+		nameStart = start;
+		nameLength = pos - start;
+		return dots;
+	}
+
+	/** Does the most recent name match some text?
+	 *  @param s	the text.
+	 *  @return	true if they are the same.
+	 */
+	boolean nameIs( String s ) {
+		if (s.length() != nameLength) return false;
+		for (int i = 0; i < nameLength; i++) {
+			if (buf[nameStart + i] != s.charAt( i )) return false;
+		}
+		return true;
+	}
+
+	/** Get the most recent name as a string.
+	 *  @return	the name, or an empty string if there was none.
+	 */
+	String name() {
+		final char[] c = new char[nameLength];
+		for (int i = 0; i < nameLength; i++) {
+			c[i] = (char)buf[nameStart + i];
+		}
+		return new String( c );
+	}
+
+	/** Look up the most recent name.
+	 *  @param index	the index to look it up in.
+	 *  @return	the gate with that name, or null if there is none.
+	 */
+	Gate findName( NameIndex index ) {
+		return index.find( buf, nameStart, nameLength );
+	}
+
+	/** Scan an unsigned integer without skipping to the next line;
+	 *  like Scanner.hasNextInt, this insists on a whole token, so
+	 *  nothing is scanned from text such as <code>0.5</code>.
+	 *  @return	the integer, or -1 if there was none.
+	 */
+	int nextInt() {
+		skipWhitespace();
+		int p = pos;
+		int v = 0;
+		while ((p < end) && isDigit( buf[p] )) {
+			v = v * 10 + (buf[p] - '0');
+			p++;
+		}
+		if (p == pos) return -1;
+		if (p < end) {
+			final byte c = buf[p];
+			if ((c != ' ') && (c != '\t') && (c != '\n') && (c != '\r')) {
+				return -1;
+			}
+		}
+		pos = p;
+		return v;
+	}
+
+	/** Scan the digits of a truth table, 0, x or 1, without skipping
+	 *  to the next line.
+	 *  @return	the digits, or an empty string if there were none.
+	 */
+	String nextDigits() {
+		skipWhitespace();
+		final int start = pos;
+		while ((pos < end)
+		&&     ((buf[pos] == '0') || (buf[pos] == 'x') || (buf[pos] == '1'))) {
+			pos++;
+		}
+		final char[] c = new char[pos - start];
+		for (int i = start; i < pos; i++) c[i - start] = (char)buf[i];
+		return new String( c );
+	}
+
+	/** powers of ten that are exact as doubles */
+	private static final double[] powers = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+		1e21, 1e22
+	};
+
+	/** Scan a number of the form Digits.Digits or .Digits without
+	 *  skipping to the next line, as ScanSupport.nextFloat does.
+	 *  @param signed	if true, a leading minus sign is allowed.
+	 *  @return	the number, or NaN if there was none.
+	 */
+	float nextFloat( boolean signed ) {
+		return (float)nextDouble( signed );
+	}
+
+	/** Scan a number as nextFloat does, but to double precision.
+	 *  @param signed	if true, a leading minus sign is allowed.
+	 *  @return	the number, or NaN if there was none.
+	 */
+	double nextDouble( boolean signed ) {
+		skipWhitespace();
+		final int start = pos;
+		boolean negative = false;
+		if (signed && (pos < end) && (buf[pos] == '-')) {
+			negative = true;
+			pos++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;		// significant digits in mantissa
+		int scale = 0;		// power of ten to divide mantissa by
+		boolean any = false;	// were there any digits?
+		boolean point = false;	// has the point been seen?
+		while (pos < end) {
+			final byte c = buf[pos];
+			if (isDigit( c )) {
+				any = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa != 0) digits++;
+					if (point) scale++;
+				} else if (!point) {
+					scale--; // too many digits, drop this one
+				}
+			} else if ((c == '.') && !point) {
+				point = true;
+			} else {
+				break;
+			}
+			pos++;
+		}
+		if (!any) {
+			pos = start;
+			return Double.NaN;
+		}
+
+		double v = mantissa;
+		if (scale > 0) {
+			if (scale < powers.length) {
+				v = v / powers[scale];
+			} else {
+				v = v / Math.pow( 10, scale );
+			}
+		} else if (scale < 0) {
+			v = v * Math.pow( 10, -scale );
+		}
+		return negative ? -v : v;
+	}
+
+	/** Advance to the next line.
+	 *  Optional line end comments are skipped; anything else found on
+	 *  the way is returned so that the caller can complain about it.
+	 *  @return	null, or the unexpected text at the end of the line.
+	 */
+	String lineEnd() {
+		skipWhitespace();
+		final int start = pos;
+		while ((pos < end) && (buf[pos] != '\n')) pos++;
+		int stop = pos;
+		if ((stop > start) && (buf[stop - 1] == '\r')) stop--;
+		if (pos < end) pos++; // skip the newline
+		line = line + 1;
+
+		if (stop == start) return null;
+		if ((stop - start >= 2)
+		&&  (buf[start] == '-') && (buf[start + 1] == '-')) {
+			return null;
+		}
+		final char[] c = new char[stop - start];
+		for (int i = start; i < stop; i++) {
+			c[i - start] = (char)(buf[i] & 0xFF);
+		}
+		return new String( c );
+	}
+
+	/** Skip the rest of the line without looking at it. */
+	void skipLine() {
+		while ((pos < end) && (buf[pos] != '\n')) pos++;
+		if (pos < end) pos++;
+		line = line + 1;
+	}
+}
@@ -0,0 +1,605 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Fast reader for ternary logic systems.
+ *
+ *  This reads the same input as {@link TernaryLogic#initializeTernary},
+ *  with the same warnings, but maps the file into memory and scans it
+ *  with a {@link NetlistLexer}, so large files load at disk speed.
+ *  Warnings give the line number where the problem was found.
+ *
+ *  The file can also be read in parallel, see {@link #loadParallel}.
+ *  Modules are only read sequentially, since a module must be defined
+ *  before its instances and its lines belong to it, not the top level.
+ *
+ *  @author Ryan Boehm
+ *  @see NetlistLexer
+ *  @see TernaryLogic
+ */
+final class NetlistLoader {
+
+	/** the most that is mapped at once; a mapping cannot exceed 2GB */
+	private static final long SEGMENT = Integer.MAX_VALUE;
+
+	/** the initial size of the window through which text is scanned */
+	private static final int WINDOW = 1 << 22;
+
+	// what a loader reads; a sequential loader reads everything
+	private static final int ALL = 0;
+	private static final int GATES = 1; // and everything but wires
+	private static final int WIRES = 2;
+
+	private final NetlistLexer lx;	// where the text comes from
+	private final int phase;	// ALL, GATES or WIRES
+
+	// ***** used only by parallel loaders, see loadParallel *****
+
+	/** A warning held back so that warnings come out in line order */
+	private static final class Warning {
+		final int line;		// line number within the chunk
+		final String message;
+		final int decl;		// the gate declaration it concerns, or -1
+
+		Warning( int l, String m, int d ) {
+			line = l;
+			message = m;
+			decl = d;
+		}
+	}
+
+	/** the warnings of this loader, or null to report them directly */
+	private final ArrayList <Warning> held;
+
+	// gate declarations read while in the GATES phase, in order
+	private final ArrayList <String> declName = new ArrayList <String> ();
+	private final ArrayList <Gate> declGate = new ArrayList <Gate> ();
+	private int[] declLine = new int[16];
+	private int decl = -1;	// the declaration on the current line, or -1
+
+	/** wires read while in the WIRES phase, not yet connected */
+	private final ArrayList <Wire> newWires = new ArrayList <Wire> ();
+
+	/** the line defining each gate, by index, while in the WIRES phase */
+	private final int[] gateLine;
+
+	/** the line number of the first line, when in the WIRES phase */
+	private final int base;
+
+	/** set in the GATES phase on finding a line about modules */
+	private boolean modules = false;
+
+	/** Construct a loader.
+	 *  @param lx	the lexer from which to read.
+	 *  @param phase	ALL, GATES or WIRES.
+	 *  @param gateLine	the line defining each gate, for WIRES.
+	 *  @param base	the number of lines before those of lx, for WIRES.
+	 */
+	private NetlistLoader(
+		NetlistLexer lx, int phase, int[] gateLine, int base
+	) {
+		this.lx = lx;
+		this.phase = phase;
+		this.held = (phase == ALL) ? null : new ArrayList <Warning> ();
+		this.gateLine = gateLine;
+		this.base = base;
+	}
+
+	/** read a ternary logic system.
+	 *  The file is mapped into memory a segment at a time, and copied
+	 *  from there into a window of whole lines for scanning.
+	 *  @param f	the file from which the system is read.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	static void load( File f ) throws IOException {
+		try (
+			FileChannel ch = FileChannel.open(
+				f.toPath(), StandardOpenOption.READ
+			)
+		) {
+			final long size = ch.size();
+			byte[] window = new byte[WINDOW];
+			int kept = 0;	// bytes of an unfinished line in window
+			int line = 1;
+
+			for (long start = 0; start < size; start = start + SEGMENT) {
+				final MappedByteBuffer b = ch.map(
+					FileChannel.MapMode.READ_ONLY,
+					start, Math.min( SEGMENT, size - start )
+				);
+				while (b.hasRemaining()) {
+					if (kept == window.length) { // a very long line
+						window = Arrays.copyOf( window, 2 * kept );
+					}
+					final int n = Math.min(
+						window.length - kept, b.remaining()
+					);
+					b.get( window, kept, n );
+					final int limit = kept + n;
+
+					// scan up to the last line end, unless at the end
+					int cut = limit;
+					if (b.hasRemaining() || (start + SEGMENT < size)) {
+						while ((cut > 0) && (window[cut - 1] != '\n')) {
+							cut--;
+						}
+					}
+					final NetlistLoader l = new NetlistLoader(
+						new NetlistLexer( window, 0, cut, line ),
+						ALL, null, 0
+					);
+					l.read();
+					line = l.lx.line;
+
+					kept = limit - cut;
+					System.arraycopy( window, cut, window, 0, kept );
+				}
+			}
+			final String problem = TernaryLogic.endOfInput();
+			if (problem != null) Errors.warn( line, problem );
+		}
+	}
+
+	/** read a ternary logic system already held in memory.
+	 *  @param text	the text of the system.
+	 */
+	static void load( byte[] text ) {
+		final NetlistLoader l = new NetlistLoader(
+			new NetlistLexer( text, 0, text.length, 1 ), ALL, null, 0
+		);
+		l.read();
+		final String problem = TernaryLogic.endOfInput();
+		if (problem != null) Errors.warn( l.lx.line, problem );
+	}
+
+	// ***** parallel loading *****
+
+	/** the size of chunks the input is divided into for parallel loading */
+	private static final long CHUNK = 1 << 23;
+
+	/** A line aligned part of the input, loaded by one task at a time */
+	private static final class Chunk {
+		final long start;	// where the chunk starts in the file
+		final int length;	// how long it is
+		int lines;		// how many lines it holds
+		int base;		// how many lines come before it
+		NetlistLoader gates;	// what was found in the GATES phase
+		NetlistLoader wires;	// what was found in the WIRES phase
+
+		Chunk( long s, int l ) {
+			start = s;
+			length = l;
+		}
+	}
+
+	/** Fork/join task to run one phase over a range of chunks */
+	private static final class Phase extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel ch;
+		private final Chunk[] chunks;
+		private final int from;		// the first chunk to load
+		private final int to;		// and one past the last
+		private final int phase;	// GATES or WIRES
+		private final int[] gateLine;	// for WIRES
+
+		Phase( FileChannel c, Chunk[] k, int f, int t, int p, int[] g ) {
+			ch = c;
+			chunks = k;
+			from = f;
+			to = t;
+			phase = p;
+			gateLine = g;
+		}
+
+		/** split the range of chunks until just one is left */
+		protected void compute() {
+			if (to - from > 1) {
+				final int mid = (from + to) >>> 1;
+				invokeAll(
+					new Phase( ch, chunks, from, mid, phase, gateLine ),
+					new Phase( ch, chunks, mid, to, phase, gateLine )
+				);
+				return;
+			}
+
+			final Chunk c = chunks[from];
+			final byte[] text = new byte[c.length];
+			try {
+				ch.map(
+					FileChannel.MapMode.READ_ONLY, c.start, c.length
+				).get( text );
+			} catch (IOException e) {
+				throw new UncheckedIOException( e );
+			}
+
+			final NetlistLoader l = new NetlistLoader(
+				new NetlistLexer( text, 0, text.length, 1 ),
+				phase, gateLine, c.base
+			);
+			l.read();
+			if (phase == GATES) {
+				c.lines = l.lx.line - 1;
+				c.gates = l;
+			} else {
+				c.wires = l;
+			}
+		}
+	}
+
+	/** read a ternary logic system using all available processors.
+	 *  The file is divided into line aligned chunks, and gates are
+	 *  read from all the chunks in parallel.  Then the new gates are
+	 *  indexed in order, and the wires are read in parallel.  Warnings
+	 *  are held back and reported in line order, so the result is just
+	 *  as if the file had been read by <code>load</code>.
+	 *  If the file uses modules, it is read by <code>load</code>.
+	 *  @param f	the file from which the system is read.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	static void loadParallel( File f ) throws IOException {
+		try (
+			FileChannel ch = FileChannel.open(
+				f.toPath(), StandardOpenOption.READ
+			)
+		) {
+			final Chunk[] chunks = divide( ch );
+			final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+			// phase one, read the gates and anything not a wire
+			pool.invoke(
+				new Phase( ch, chunks, 0, chunks.length, GATES, null )
+			);
+			for ( Chunk c: chunks ) {
+				if (c.gates.modules) { // nothing has been added yet
+					load( f );
+					return;
+				}
+			}
+			int line = 0;
+			for ( Chunk c: chunks ) {
+				c.base = line;
+				line = line + c.lines;
+			}
+
+			// index the new gates in order, finding redefinitions
+			final ArrayList <Warning> warnings = new ArrayList <Warning> ();
+			int[] gateLine = new int[1024];
+			for ( Chunk c: chunks ) {
+				final NetlistLoader l = c.gates;
+				final boolean[] redefined = new boolean[l.declName.size()];
+				for (int d = 0; d < redefined.length; d++) {
+					final int at = c.base + l.declLine[d];
+					if (TernaryLogic.findGate( l.declName.get( d ) ) != null) {
+						redefined[d] = true;
+						warnings.add( new Warning(
+							at, "Gate '" + l.declName.get( d ) +
+							"' redefined.", -1
+						) );
+					} else if (l.declGate.get( d ) != null) {
+						final Gate g = l.declGate.get( d );
+						g.index = TernaryLogic.gates.size();
+						if (g.index == gateLine.length) {
+							gateLine = Arrays.copyOf( gateLine, 2 * g.index );
+						}
+						gateLine[g.index] = at;
+						TernaryLogic.addGate( g );
+					}
+				}
+				for ( Warning w: l.held ) {
+					if ((w.decl < 0) || !redefined[w.decl]) {
+						warnings.add( new Warning(
+							c.base + w.line, w.message, -1
+						) );
+					}
+				}
+			}
+
+			// phase two, read the wires
+			pool.invoke(
+				new Phase( ch, chunks, 0, chunks.length, WIRES, gateLine )
+			);
+			for ( Chunk c: chunks ) {
+				for ( Wire w: c.wires.newWires ) {
+					TernaryLogic.wires.add( w );
+					w.connect();
+				}
+				for ( Warning w: c.wires.held ) {
+					warnings.add( new Warning(
+						c.base + w.line, w.message, -1
+					) );
+				}
+			}
+
+			// report the warnings in line order
+			warnings.sort( (Warning a, Warning b) -> a.line - b.line );
+			for ( Warning w: warnings ) {
+				Errors.warn( w.line, w.message );
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause(); // from one of the tasks
+		}
+	}
+
+	/** divide a file into line aligned chunks
+	 *  @param ch	the file.
+	 *  @return	the chunks, in order.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	private static Chunk[] divide( FileChannel ch ) throws IOException {
+		final long size = ch.size();
+		final ArrayList <Chunk> chunks = new ArrayList <Chunk> ();
+		final ByteBuffer b = ByteBuffer.allocate( 1 << 16 );
+		long start = 0;
+		while (start < size) {
+			// go past the nominal end of the chunk to the next line end
+			long end = Math.min( start + CHUNK, size );
+			search: while (end < size) {
+				b.clear();
+				ch.read( b, end );
+				for (int i = 0; i < b.position(); i++) {
+					if (b.get( i ) == '\n') {
+						end = end + i + 1;
+						break search;
+					}
+				}
+				end = end + b.position();
+			}
+			if (end - start > SEGMENT) Errors.fatal(
+				"line too long in input near byte " + start
+			);
+			chunks.add( new Chunk( start, (int)(end - start) ) );
+			start = end;
+		}
+		return chunks.toArray( new Chunk[0] );
+	}
+
+	// ***** reading lines *****
+
+	/** report or hold back a warning
+	 *  @param line	the line number, within this loader's text.
+	 *  @param message	the text of the warning.
+	 */
+	private void warn( int line, String message ) {
+		if (held == null) {
+			Errors.warn( line, message );
+		} else {
+			held.add( new Warning( line, message, decl ) );
+		}
+	}
+
+	/** read all of the lines of the text */
+	private void read() {
+		while (!lx.atEnd()) command();
+	}
+
+	/** process one line of input */
+	private void command() {
+		final int line = lx.line;
+		decl = -1;
+		if (!lx.nextName()) { // blank or comment
+			if (phase == WIRES) {
+				lx.skipLine();
+				return;
+			}
+			final String junk = lx.lineEnd();
+			if (junk != null) warn(
+				line, "Line followed unexpected by '" + junk + "'"
+			);
+
+		} else if (lx.nameIs( "gate" )) {
+			if (phase == WIRES) {
+				lx.skipLine();
+			} else {
+				gate();
+			}
+
+		} else if (lx.nameIs( "wire" )) {
+			if (phase == GATES) {
+				lx.skipLine();
+			} else {
+				wire();
+			}
+
+		} else if (phase == WIRES) {
+			lx.skipLine();
+
+		} else if (lx.nameIs( "module" )
+		||         lx.nameIs( "instance" )
+		||         lx.nameIs( "end" )) {
+			if (phase == GATES) {
+				modules = true;
+				lx.skipLine();
+			} else {
+				module();
+			}
+
+		} else {
+			warn(
+				line, "Command '" + lx.name() +
+				"' is not gate, wire, module, instance or end"
+			);
+			lx.skipLine(); // skip the rest of the error
+		}
+	}
+
+	/** process the rest of a module, instance or end line
+	 *  @see TernaryLogic#initializeTernary
+	 */
+	private void module() {
+		final int line = lx.line;
+		final String command = lx.name();
+		final String problem;
+		final String text;
+		if ("module".equals( command )) {
+			final String name = lx.nextName() ? lx.name() : "";
+			problem = TernaryLogic.beginModule( name );
+			text = "module " + name;
+		} else if ("instance".equals( command )) {
+			final String name = lx.nextName() ? lx.name() : "";
+			final String module = lx.nextName() ? lx.name() : "";
+			problem = TernaryLogic.addInstance( name, module );
+			text = "instance " + name + " " + module;
+		} else {
+			problem = TernaryLogic.endModule();
+			text = "end";
+		}
+		if (problem != null) warn( line, problem );
+
+		final String junk = lx.lineEnd();
+		if (junk != null) warn(
+			line, text + " followed unexpected by '" + junk + "'"
+		);
+	}
+
+	/** process the rest of a gate definition
+	 *  @see Gate#newGate(java.util.Scanner)
+	 */
+	private void gate() {
+		final int line = lx.line;
+		if (!lx.nextName()) {
+			warn( line, "gate has no name" );
+			lx.skipLine();
+			return;
+		}
+
+		// redefinitions are found later when reading in parallel
+		if (phase == GATES) {
+			declName.add( lx.name() );
+			declGate.add( null );
+			if (declName.size() > declLine.length) {
+				declLine = Arrays.copyOf( declLine, 2 * declLine.length );
+			}
+			decl = declName.size() - 1;
+			declLine[decl] = line;
+		} else if (lx.findName( TernaryLogic.scope.index ) != null) {
+			warn( line, "Gate '" + lx.name() + "' redefined." );
+			lx.skipLine();
+			return;
+		}
+		final String myName = lx.name();
+
+		lx.nextName();
+		byte t = -1;
+		for (byte i = 0; i < Netlist.typeName.length; i++) {
+			if (lx.nameIs( Netlist.typeName[i] )) t = i;
+		}
+		if (t < 0) {
+			warn(
+				line, "Gate '" + myName +
+				"' '" + lx.name() +
+				"' has an illegal type."
+			);
+			lx.skipLine();
+			return;
+		}
+
+		final Gate g = Gate.newGate( myName, t );
+		if ((t == Netlist.MIN) || (t == Netlist.MAX) || (t == Netlist.TABLE)) {
+			final int n = lx.nextInt();
+			if (n < 0) {
+				warn(
+					line, g.myString() + " " + Netlist.typeName[t] +
+					" -- has no input count"
+				);
+			} else {
+				g.inputs = n;
+			}
+		}
+		if (t == Netlist.TABLE) {
+			final String problem = ((TableGate)g).setTable( lx.nextDigits() );
+			if (problem != null) warn( line, g.myString() + problem );
+		}
+
+		g.delay = lx.nextFloat( true );
+		if (g.delay != g.delay) { // really asks if delay == NaN
+			warn( line, g.myString() + " -- has no delay" );
+		} else if (g.delay < 0.0f) {
+			warn( line, g.myString() + " -- has negative delay." );
+		}
+
+		final String junk = lx.lineEnd();
+		if (junk != null) warn(
+			line, g.myString() + " followed unexpected by '" + junk + "'"
+		);
+
+		if (phase == GATES) {
+			declGate.set( decl, g );
+		} else {
+			TernaryLogic.addGate( g );
+		}
+	}
+
+	/** look up the most recently scanned name as the name of a gate;
+	 *  when reading in parallel, gates defined after the line holding
+	 *  the name are not found, just as when reading sequentially.
+	 *  @param line	the line holding the name.
+	 *  @param dots	the dots in the name, as nextPath returns; names
+	 *  with dots name gates of instances, which are only read in order.
+	 *  @return	the gate, or null.
+	 */
+	private Gate findName( int line, int dots ) {
+		if (dots > 0) return TernaryLogic.findGate( lx.name() );
+		final Gate g = lx.findName( TernaryLogic.scope.index );
+		if ((g != null) && (gateLine != null)
+		&&  (gateLine[g.index] > base + line)) return null;
+		return g;
+	}
+
+	/** process the rest of a wire definition
+	 *  @see Wire#Wire(java.util.Scanner)
+	 */
+	private void wire() {
+		final int line = lx.line;
+
+		// look up the names of source and dest, only making strings
+		// of the names when they are needed for a warning
+		final Gate src = findName( line, lx.nextPath() );
+		final String srcName = (src == null) ? lx.name() : src.name;
+		final Gate dst = findName( line, lx.nextPath() );
+		final String dstName = (dst == null) ? lx.name() : dst.name;
+
+		if (src == null) warn(
+			line, "Wire '" + srcName + "' '" + dstName +
+			"' source undefined."
+		);
+		if (dst == null) warn(
+			line, "Wire '" + srcName + "' '" + dstName +
+			"' destination undefined."
+		);
+
+		final float delay = lx.nextFloat( false );
+		if (delay != delay) { // really asks if delay == NaN
+			warn(
+				line, "Wire '" + srcName + "' '" + dstName +
+				"' has no delay."
+			);
+		} else if (delay < 0.0f) {
+			warn(
+				line, "Wire '" + srcName + "' '" + dstName +
+				"' '" + delay + "' has negative delay."
+			);
+		}
+
+		final Wire w = new Wire( src, dst, delay );
+		final String junk = lx.lineEnd();
+		if (junk != null) warn(
+			line, w.toString() + " followed unexpected by '" + junk + "'"
+		);
+
+		if (phase == WIRES) {
+			newWires.add( w );
+		} else {
+			w.connect();
+			TernaryLogic.scope.wires.add( w );
+		}
+	}
+}
@@ -0,0 +1,409 @@
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/** Conservative parallel simulation of a compiled circuit.
+ *
+ *  The gates are divided into blocks, one per worker thread, each a run
+ *  of gates found breadth first through the wires so that most wires
+ *  stay within a block, and each worker keeps the value changes for its
+ *  own gates in its own {@link EventHeap}.  Output changes are delivered
+ *  straight to the gates they feed, as in {@link Simulation#fused} mode;
+ *  a change bound for another worker's gate goes into a mailbox instead.
+ *
+ *  Workers advance together in windows.  No change can cross between
+ *  workers in less than the lookahead, the shortest wire joining two
+ *  blocks, so during a window that is no longer than that, no worker can
+ *  receive anything that it should already have simulated.  Each window
+ *  also ends just after the time of the next object event, which the
+ *  main thread triggers between windows while the workers wait, so a row
+ *  printed at some time shows all the changes due then.  The sequential
+ *  {@link Simulation#run} shows those that its queue takes before the
+ *  row, so the two can differ where changes fall due just as a row is
+ *  printed.
+ *
+ *  Mailboxes need no locks: each is written by one worker during a window
+ *  and read by another during the next, so the barrier between windows
+ *  is all the synchronization there is.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ */
+final class ParallelSimulation {
+	private ParallelSimulation() {} // no instances
+
+	/** Changes sent from one worker to another during a window */
+	private static final class Mailbox {
+		long[]  times = new long[64];
+		int[]   targets = new int[64];
+		int[]   oldvs = new int[64];
+		int[]   newvs = new int[64];
+		int     count = 0;
+
+		/** the earliest time in the mailbox */
+		long    first = Long.MAX_VALUE;
+
+		/** Post a change
+		 *  @param t	the time the change reaches the gate.
+		 *  @param g	the gate.
+		 *  @param ov	the previous value on the wire.
+		 *  @param nv	the new value on the wire.
+		 */
+		void add( long t, int g, int ov, int nv ) {
+			if (count == times.length) {
+				final int n = count * 2;
+				times = java.util.Arrays.copyOf( times, n );
+				targets = java.util.Arrays.copyOf( targets, n );
+				oldvs = java.util.Arrays.copyOf( oldvs, n );
+				newvs = java.util.Arrays.copyOf( newvs, n );
+			}
+			times[count] = t;
+			targets[count] = g;
+			oldvs[count] = ov;
+			newvs[count] = nv;
+			count = count + 1;
+			if (t < first) first = t;
+		}
+	}
+
+	// ***** shared by all threads, written only between windows *****
+
+	private static Simulation sim;
+	private static Netlist net;
+	private static int[] owner;		// the worker of each gate
+	private static Worker[] workers;
+	private static CyclicBarrier barrier;
+
+	/** mail[r][from][to] is used in windows with r = window & 1 */
+	private static Mailbox[][][] mail;
+
+	private static int window = 0;		// the number of the window
+	private static long windowEnd;		// simulate up to, not including
+	private static boolean stop = false;	// set to make workers quit
+
+	/** what went wrong in a worker, if anything */
+	private static volatile Throwable failure = null;
+
+	/** One thread's share of the circuit */
+	private static final class Worker extends Thread {
+		private final int id;
+		final EventHeap queue = new EventHeap();
+
+		// the circuit state; each worker only touches its own gates
+		private final int[] counts = sim.counts;
+		private final byte[] output = sim.output;
+		private final byte[] current = sim.current;
+
+		Worker( int i ) {
+			super( "worker " + i );
+			id = i;
+			setDaemon( true );
+		}
+
+		/** Take in the changes other workers sent during the last window.
+		 *  @param in	the mailboxes for the last window.
+		 */
+		private void receive( Mailbox[][] in ) {
+			for (int w = 0; w < in.length; w++) {
+				final Mailbox m = in[w][id];
+				if (m == null) continue;
+				for (int i = 0; i < m.count; i++) {
+					queue.add(
+						m.times[i], Simulation.GATE_INPUT,
+						m.targets[i], m.oldvs[i], m.newvs[i]
+					);
+				}
+				m.count = 0;
+				m.first = Long.MAX_VALUE;
+			}
+		}
+
+		/** Simulate everything due before the end of the window.
+		 *  @param out	this worker's mailboxes for this window.
+		 */
+		private void simulate( Mailbox[] out ) {
+			final EventHeap q = queue;
+			final long end = windowEnd;
+			while (q.peekTime() < end) {
+				q.remove();
+				if (q.kind == Simulation.GATE_INPUT) {
+					gateInput( q.time, q.target, q.oldv, q.newv );
+				} else {
+					gateOutput( q.time, q.target, q.oldv, q.newv, out );
+				}
+			}
+		}
+
+		/** simulate an input change to one of this worker's gates
+		 *  @param time	the time at which the input changes.
+		 *  @param g	the gate where the input changes.
+		 *  @param oldv	the previous logic value carried to the gate,
+		 *  plus 4 times the weight of the input of a table gate.
+		 *  @param newv	the new logic value carried to the gate.
+		 */
+		private void gateInput( long time, int g, int oldv, int newv ) {
+			Netlist.input( counts, 3 * g, oldv >>> 2, oldv & 3, newv );
+
+			final int newOut = net.value( g, counts );
+			final int old = output[g];
+			if (old != newOut) {
+				queue.add(
+					time + net.delay[g],
+					Simulation.GATE_OUTPUT, g, old, newOut
+				);
+				output[g] = (byte)newOut;
+			}
+		}
+
+		/** simulate an output change from one of this worker's gates
+		 *  @param time	the time at which the output changes.
+		 *  @param g	the gate where the output changes.
+		 *  @param oldv	the previous logic value that left the gate.
+		 *  @param newv	the new logic value that exits the gate.
+		 *  @param out	this worker's mailboxes for this window.
+		 */
+		private void gateOutput(
+			long time, int g, int oldv, int newv, Mailbox[] out
+		) {
+			final int last = net.fanout[g + 1];
+			for (int e = net.fanout[g]; e < last; e++) {
+				final int d = net.wireDst[e];
+				final long t = time + net.wireDelay[e];
+				final int w = owner[d];
+				final int ov = oldv | (net.wireWeight[e] << 2);
+				if (w == id) {
+					queue.add(
+						t, Simulation.GATE_INPUT, d, ov, newv
+					);
+				} else {
+					out[w].add( t, d, ov, newv );
+				}
+			}
+			current[g] = (byte)newv;
+		}
+
+		public void run() {
+			try {
+				for (;;) {
+					barrier.await(); // for the window to be set
+					if (stop) return;
+					try {
+						receive( mail[(window + 1) & 1] );
+						simulate( mail[window & 1][id] );
+					} catch (Throwable t) {
+						// running out of memory, say; keep coming to the
+						// barrier, or everyone else would wait forever,
+						// and let the main thread report it
+						failure = t;
+					}
+					barrier.await(); // for the others to finish
+				}
+			} catch (InterruptedException | BrokenBarrierException e) {
+				// the main thread gave up, so just quit
+			}
+		}
+	}
+
+	/** Order the gates so that gates joined by wires are close together:
+	 *  breadth first through the wires, both ways, starting from the
+	 *  gates with no inputs and then from any gate not yet reached.
+	 *  @return	the gates in that order.
+	 */
+	private static int[] connected() {
+		final int n = net.gateCount;
+
+		// the gates feeding each gate, in from[first[g]] up to but not
+		// including from[first[g + 1]]
+		final int[] first = new int[n + 1];
+		for (int e = 0; e < net.wireCount; e++) first[net.wireDst[e] + 1]++;
+		for (int g = 0; g < n; g++) first[g + 1] = first[g + 1] + first[g];
+		final int[] next = java.util.Arrays.copyOf( first, n );
+		final int[] from = new int[net.wireCount];
+		for (int g = 0; g < n; g++) {
+			for (int e = net.fanout[g]; e < net.fanout[g + 1]; e++) {
+				from[next[net.wireDst[e]]++] = g;
+			}
+		}
+
+		final int[] order = new int[n];
+		final boolean[] seen = new boolean[n];
+		int head = 0;
+		int tail = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int s = 0; s < n; s++) {
+				if (seen[s] || ((pass == 0) && (first[s + 1] > first[s]))) {
+					continue;
+				}
+				seen[s] = true;
+				order[tail++] = s;
+				while (head < tail) {
+					final int g = order[head++];
+					for (int e = net.fanout[g]; e < net.fanout[g + 1]; e++) {
+						final int d = net.wireDst[e];
+						if (!seen[d]) {
+							seen[d] = true;
+							order[tail++] = d;
+						}
+					}
+					for (int i = first[g]; i < first[g + 1]; i++) {
+						final int d = from[i];
+						if (!seen[d]) {
+							seen[d] = true;
+							order[tail++] = d;
+						}
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	/** Divide the gates into blocks of about equal work, counting a gate
+	 *  and each wire leaving it as one unit each.  Each block is a run
+	 *  of the gates in the order of connected(), so that fewer wires
+	 *  join gates of different blocks than with runs of gate numbers.
+	 *  @param threads	the number of blocks.
+	 */
+	private static void partition( int threads ) {
+		owner = new int[net.gateCount];
+		final long total = (long)net.gateCount + net.wireCount;
+		long done = 0;
+		int w = 0;
+		for ( int g: connected() ) {
+			while ((w < threads - 1)
+			&&     (done * threads >= total * (w + 1))) {
+				w = w + 1;
+			}
+			owner[g] = w;
+			done = done + 1 + net.fanout[g + 1] - net.fanout[g];
+		}
+	}
+
+	/** the number of wires between gates of different workers */
+	private static int crossing = 0;
+
+	/** Find the shortest wire between gates of different workers,
+	 *  counting those wires in crossing.
+	 *  @return	the delay of that wire, or Long.MAX_VALUE if none.
+	 */
+	private static long lookahead() {
+		long l = Long.MAX_VALUE;
+		crossing = 0;
+		for (int g = 0; g < net.gateCount; g++) {
+			final int last = net.fanout[g + 1];
+			for (int e = net.fanout[g]; e < last; e++) {
+				if (owner[net.wireDst[e]] != owner[g]) {
+					l = Math.min( l, net.wireDelay[e] );
+					crossing = crossing + 1;
+				}
+			}
+		}
+		return l;
+	}
+
+	/** Hand a primitive event from the main queue to the right worker.
+	 *  @param q	the main queue, holding the event just removed.
+	 */
+	private static void route( EventQueue q ) {
+		workers[owner[q.target]].queue.add(
+			q.time, q.kind, q.target, q.oldv, q.newv
+		);
+	}
+
+	/** Run a simulation started by {@link Simulation#start} in parallel;
+	 *  this is used in place of {@link Simulation#run}.
+	 *  If no wire between blocks has a positive delay, there is no
+	 *  lookahead, so this runs sequentially instead.
+	 *  @param s	the simulation.
+	 *  @param threads	the number of worker threads.
+	 */
+	public static void run( Simulation s, int threads ) {
+		sim = s;
+		net = s.net;
+		threads = Math.max( 1, Math.min( threads, net.gateCount ) );
+		partition( threads );
+		final long lookahead = lookahead();
+		if (TernaryLogic.stats) System.err.println(
+			"Parallel simulation with " + threads +
+			" threads, lookahead " + lookahead + " ticks, " + crossing +
+			" of " + net.wireCount + " wires between threads"
+		);
+		if (lookahead <= 0) {
+			System.err.println(
+				"No lookahead between partitions, simulating sequentially"
+			);
+			s.fused = true;
+			net.groupFanout();
+			s.run();
+			return;
+		}
+
+		mail = new Mailbox[2][threads][threads];
+		workers = new Worker[threads];
+		for (int w = 0; w < threads; w++) {
+			workers[w] = new Worker( w );
+			for (int v = 0; v < threads; v++) {
+				if (v == w) continue;
+				mail[0][w][v] = new Mailbox();
+				mail[1][w][v] = new Mailbox();
+			}
+		}
+		barrier = new CyclicBarrier( threads + 1 );
+		for ( Worker w: workers ) w.start();
+
+		final EventQueue q = s.eventSet;
+		try {
+			for (;;) {
+				// the earliest change anywhere, including those in transit
+				long first = Long.MAX_VALUE;
+				for ( Worker w: workers ) {
+					first = Math.min( first, w.queue.peekTime() );
+				}
+				for ( Mailbox[] from: mail[window & 1] ) {
+					for ( Mailbox m: from ) {
+						if (m != null) first = Math.min( first, m.first );
+					}
+				}
+
+				// deal with the main queue up to that time
+				if (!q.isEmpty()) {
+					if (q.peekKind() != Simulation.OBJECT) {
+						q.remove();
+						route( q );
+						continue;
+					} else if (q.peekTime() < first) {
+						q.remove();
+						s.trigger( q.target );
+						if (s.stopped) break;
+						continue;
+					}
+				} else if (first == Long.MAX_VALUE) {
+					break; // nothing left to do
+				}
+
+				// end the window after any changes due with the next
+				// object event
+				window = window + 1;
+				final long next = q.peekTime();
+				windowEnd = Math.min(
+					(lookahead > Long.MAX_VALUE - first)
+						? Long.MAX_VALUE : first + lookahead,
+					(next == Long.MAX_VALUE) ? next : next + 1
+				);
+				barrier.await(); // start the window
+				barrier.await(); // wait for it to end
+				if (failure != null) Errors.fatal(
+					"Parallel simulation failed: " + failure
+				);
+			}
+		} catch (InterruptedException | BrokenBarrierException e) {
+			Errors.fatal( "Parallel simulation failed" );
+		}
+
+		stop = true;
+		try {
+			barrier.await(); // release the workers so they quit
+		} catch (InterruptedException | BrokenBarrierException e) {
+			// they are daemons, so never mind
+		}
+	}
+}
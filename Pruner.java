@@ -0,0 +1,320 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/** Pruning of a circuit before simulation.
+ *
+ *  Two things are taken out of a checked circuit.  Gates whose outputs
+ *  are constant are folded: each becomes a constant gate, see
+ *  {@link Netlist#subset}, and the wires into it go.  Then gates that no
+ *  observed gate depends on are removed, along with their wires, where
+ *  the observed gates are those to be printed or dumped.
+ *
+ *  Every output starts out unknown, so a gate is taken as constant only
+ *  if its output is unknown up to some time and one value from then on;
+ *  the constant gate then changes at that time, just as the gate did, and
+ *  the waveforms of the gates that remain are exactly as they were.  A
+ *  gate is constant if it is an input gate with no stimulus, if its
+ *  inputs are all constant and the values it takes from them change only
+ *  once, if it is a min gate fed a constant false or a max gate fed a
+ *  constant true before any other input can be anything but unknown, or
+ *  if nothing can ever make its output anything but unknown.  This last
+ *  rests on the earliest time each gate's output can change, a shortest
+ *  path from the gates that change without any change of their inputs.
+ *
+ *  Only the order in which events with the same time are taken can
+ *  change, so without inertial delay the values printed are the same.
+ *
+ *  @author Ryan Boehm
+ *  @see Netlist
+ *  @see TernaryLogic
+ */
+final class Pruner {
+	private Pruner() {} // no instances
+
+	/** a time no output change can come before */
+	private static final long NEVER = Long.MAX_VALUE;
+
+	/** the number of gates made constant */
+	static int folded = 0;
+
+	/** the number of gates and wires removed */
+	static int gatesRemoved = 0;
+	static int wiresRemoved = 0;
+
+	/** the number of gates observed, which come first once pruned */
+	static int observed = 0;
+
+	private static Netlist net;
+	private static int[] source;	// the gate each wire leaves
+
+	// the wires into each gate, in inWire[inFirst[g]] up to but not
+	// including inWire[inFirst[g + 1]]
+	private static int[] inFirst;
+	private static int[] inWire;
+
+	/** the earliest time each gate's output can leave unknown, or NEVER */
+	private static long[] earliest;
+
+	// for each gate, the value it is constant at, or -1, and when its
+	// output takes that value
+	private static byte[] constant;
+	private static long[] at;
+
+	/** Prune a circuit.
+	 *  @param n	the circuit.
+	 *  @param observe	for each gate, true if it is printed or dumped.
+	 *  @param driven	true if input gates are driven by a stimulus,
+	 *  in which case they are kept and not constant.
+	 *  @return	the pruned circuit, with the observed gates first, in
+	 *  the same order as before.
+	 */
+	static Netlist prune( Netlist n, boolean[] observe, boolean driven ) {
+		net = n;
+		wires();
+		earliest( driven );
+		constants( driven );
+
+		// keep the observed gates and whatever they depend on
+		final boolean[] keep = new boolean[n.gateCount];
+		final int[] stack = new int[n.gateCount];
+		int top = 0;
+		for (int g = 0; g < n.gateCount; g++) {
+			if (observe[g] || (driven && (n.type[g] == Netlist.INPUT))) {
+				keep[g] = true;
+				stack[top++] = g;
+			}
+		}
+		while (top > 0) {
+			final int g = stack[--top];
+			if (constant[g] >= 0) continue; // its inputs are not needed
+			for (int i = inFirst[g]; i < inFirst[g + 1]; i++) {
+				final int s = source[inWire[i]];
+				if (!keep[s]) {
+					keep[s] = true;
+					stack[top++] = s;
+				}
+			}
+		}
+
+		int kept = 0;
+		observed = 0;
+		folded = 0;
+		for (int g = 0; g < n.gateCount; g++) {
+			if (observe[g]) observed++;
+			if (keep[g]) kept++;
+			if (keep[g] && (constant[g] >= 0)) folded++;
+		}
+		final int[] order = new int[kept];
+		int o = 0;
+		int u = observed;
+		for (int g = 0; g < n.gateCount; g++) {
+			if (observe[g]) {
+				order[o++] = g;
+			} else if (keep[g]) {
+				order[u++] = g;
+			}
+		}
+
+		final boolean[] dropped = new boolean[n.wireCount];
+		wiresRemoved = 0;
+		for (int e = 0; e < n.wireCount; e++) {
+			final int d = n.wireDst[e];
+			dropped[e] = !keep[d] || (constant[d] >= 0);
+			if (dropped[e]) wiresRemoved++;
+		}
+		gatesRemoved = n.gateCount - kept;
+		return n.subset( order, dropped, constant, at );
+	}
+
+	/** Find the source of each wire and the wires into each gate. */
+	private static void wires() {
+		final Netlist n = net;
+		source = new int[n.wireCount];
+		inFirst = new int[n.gateCount + 1];
+		for (int g = 0; g < n.gateCount; g++) {
+			for (int e = n.fanout[g]; e < n.fanout[g + 1]; e++) {
+				source[e] = g;
+				inFirst[n.wireDst[e] + 1]++;
+			}
+		}
+		for (int g = 0; g < n.gateCount; g++) {
+			inFirst[g + 1] = inFirst[g + 1] + inFirst[g];
+		}
+		final int[] next = Arrays.copyOf( inFirst, n.gateCount );
+		inWire = new int[n.wireCount];
+		for (int e = 0; e < n.wireCount; e++) {
+			inWire[next[n.wireDst[e]]++] = e;
+		}
+	}
+
+	/** What does a gate put out when all its inputs are unknown?
+	 *  @param g	the gate, which is not an input gate.
+	 *  @return	the value.
+	 */
+	private static int unknownValue( int g ) {
+		final Netlist n = net;
+		if (n.type[g] == Netlist.TABLE) {
+			return n.table[g][(n.table[g].length - 1) / 2];
+		}
+		final int[] counts = { 0, n.inputs[g], 0 };
+		return Netlist.logicValue( n.type[g], counts, 0 );
+	}
+
+	/** Work out the earliest time each gate's output can leave unknown,
+	 *  by Dijkstra's algorithm.  A gate that puts out something else when
+	 *  its inputs are unknown does so after its delay; any other gate
+	 *  only after some input has changed.
+	 *  @param driven	true if input gates are driven by a stimulus.
+	 */
+	private static void earliest( boolean driven ) {
+		final Netlist n = net;
+		earliest = new long[n.gateCount];
+		Arrays.fill( earliest, NEVER );
+		final PriorityQueue <long[]> q = new PriorityQueue <long[]> (
+			(a, b) -> Long.compare( a[0], b[0] )
+		);
+		for (int g = 0; g < n.gateCount; g++) {
+			final boolean starts = (n.type[g] == Netlist.INPUT)
+				? driven : (unknownValue( g ) != 1);
+			if (starts) {
+				earliest[g] = n.delay[g];
+				q.add( new long[] { earliest[g], g } );
+			}
+		}
+		while (!q.isEmpty()) {
+			final long[] x = q.poll();
+			final int g = (int)x[1];
+			if (x[0] > earliest[g]) continue; // already done sooner
+			for (int e = n.fanout[g]; e < n.fanout[g + 1]; e++) {
+				final int d = n.wireDst[e];
+				final long t = x[0] + n.wireDelay[e] + n.delay[d];
+				if (t < earliest[d]) {
+					earliest[d] = t;
+					q.add( new long[] { t, d } );
+				}
+			}
+		}
+	}
+
+	/** Find the constant gates, working forward from those known to be
+	 *  constant until no more are found.
+	 *  @param driven	true if input gates are driven by a stimulus.
+	 */
+	private static void constants( boolean driven ) {
+		final Netlist n = net;
+		constant = new byte[n.gateCount];
+		at = new long[n.gateCount];
+		Arrays.fill( constant, (byte)-1 );
+
+		final int[] work = new int[n.gateCount];
+		final boolean[] waiting = new boolean[n.gateCount];
+		int count = 0;
+		for (int g = 0; g < n.gateCount; g++) {
+			if ((n.type[g] == Netlist.INPUT) && driven) continue;
+			work[count++] = g;
+			waiting[g] = true;
+		}
+		while (count > 0) {
+			final int g = work[--count];
+			waiting[g] = false;
+			if (!fold( g )) continue;
+			for (int e = n.fanout[g]; e < n.fanout[g + 1]; e++) {
+				final int d = n.wireDst[e];
+				if ((constant[d] < 0) && !waiting[d]
+				&&  ((n.type[d] != Netlist.INPUT) || !driven)) {
+					work[count++] = d;
+					waiting[d] = true;
+				}
+			}
+		}
+	}
+
+	/** Make a gate constant, if it can be shown to be.
+	 *  @param g	the gate, which is not a driven input gate.
+	 *  @return	true if it was made constant.
+	 */
+	private static boolean fold( int g ) {
+		final Netlist n = net;
+		if (constant[g] >= 0) return false;
+		if (earliest[g] == NEVER) { // it stays unknown
+			constant[g] = 1;
+			return true;
+		}
+
+		// a false input of a min gate or a true input of a max gate
+		// decides it, once it arrives, if no other input can have been
+		// anything but unknown before that
+		final int t = n.type[g];
+		if ((t == Netlist.MIN) || (t == Netlist.MAX)) {
+			final int decides = (t == Netlist.MIN) ? 0 : 2;
+			long first = NEVER;
+			for (int i = inFirst[g]; i < inFirst[g + 1]; i++) {
+				final int e = inWire[i];
+				final int s = source[e];
+				if (constant[s] == decides) {
+					first = Math.min( first, at[s] + n.wireDelay[e] );
+				}
+			}
+			boolean decided = first != NEVER;
+			for (int i = inFirst[g]; decided && (i < inFirst[g + 1]); i++) {
+				final int e = inWire[i];
+				final int s = source[e];
+				decided = (constant[s] >= 0)
+				||        (earliest[s] + n.wireDelay[e] >= first);
+			}
+			if (decided) {
+				constant[g] = (byte)decides;
+				at[g] = first + n.delay[g];
+				return true;
+			}
+		}
+
+		// with all inputs constant, follow the value it takes as each
+		// input arrives, which must change once at most
+		final int k = inFirst[g + 1] - inFirst[g];
+		final long[] arrive = new long[k];
+		for (int i = 0; i < k; i++) {
+			final int e = inWire[inFirst[g] + i];
+			final int s = source[e];
+			if (constant[s] < 0) return false;
+			arrive[i] = (constant[s] == 1) ? NEVER : at[s] + n.wireDelay[e];
+		}
+		final long[] times = arrive.clone();
+		Arrays.sort( times );
+		int value = valueBy( g, arrive, 0 );
+		long when = n.delay[g];
+		for (int i = 0; i < k; i++) {
+			if ((times[i] == 0) || (times[i] == NEVER)) continue;
+			if ((i > 0) && (times[i] == times[i - 1])) continue;
+			final int v = valueBy( g, arrive, times[i] );
+			if (v == value) continue;
+			if (value != 1) return false; // it changes again
+			value = v;
+			when = times[i] + n.delay[g];
+		}
+		constant[g] = (byte)value;
+		at[g] = (value == 1) ? 0 : when;
+		return true;
+	}
+
+	/** Work out the value of a gate whose inputs are all constant, from
+	 *  those that have arrived by some time.
+	 *  @param g	the gate.
+	 *  @param arrive	when each input arrives, in the order of inWire.
+	 *  @param t	the time.
+	 *  @return	the value.
+	 */
+	private static int valueBy( int g, long[] arrive, long t ) {
+		final Netlist n = net;
+		final int[] counts = new int[3];
+		int packed = 0;
+		for (int i = 0; i < arrive.length; i++) {
+			final int e = inWire[inFirst[g] + i];
+			final int v = (arrive[i] <= t) ? constant[source[e]] : 1;
+			counts[v]++;
+			packed = packed + v * n.wireWeight[e];
+		}
+		if (n.type[g] == Netlist.TABLE) return n.table[g][packed];
+		return Netlist.logicValue( n.type[g], counts, 0 );
+	}
+}
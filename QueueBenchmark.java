@@ -0,0 +1,101 @@
+/** QueueBenchmark -- compare the event queues used by the simulator.
+ *
+ *  This runs the classic hold model: a queue is filled with some number
+ *  of pending events, and then each step removes the earliest event and
+ *  adds one in its place, after the delay of a gate and a wire picked at
+ *  random, much as a simulated value change does.
+ *
+ *  It runs from the command line, with the number of pending events,
+ *  the number of steps, and then the gate delays and wire delays to pick
+ *  from in ticks, separated by a single dash, for example
+ *  <pre>
+ *  java QueueBenchmark 10000 10000000 5 10 - 10 90
+ *  </pre>
+ *
+ *  @author Ryan Boehm
+ *  @see EventHeap
+ *  @see CalendarQueue
+ */
+public class QueueBenchmark {
+	private QueueBenchmark() {} // no instances
+
+	/** Time the hold model on one queue.
+	 *  @param q	an empty queue.
+	 *  @param pending	the number of pending events.
+	 *  @param steps	the number of steps.
+	 *  @param gate	the gate delays.
+	 *  @param wire	the wire delays.
+	 *  @return	the nanoseconds per step.
+	 */
+	private static double hold(
+		EventQueue q, int pending, long steps, long[] gate, long[] wire
+	) {
+		final java.util.Random r = new java.util.Random( 1 );
+		for (int i = 0; i < pending; i++) {
+			q.add(
+				gate[r.nextInt( gate.length )]
+				+ wire[r.nextInt( wire.length )],
+				1, i, 0, 0
+			);
+		}
+
+		final long start = System.nanoTime();
+		for (long i = 0; i < steps; i++) {
+			q.remove();
+			q.add(
+				q.time + gate[r.nextInt( gate.length )]
+				+ wire[r.nextInt( wire.length )],
+				q.kind, q.target, q.oldv, q.newv
+			);
+		}
+		return (double)(System.nanoTime() - start) / steps;
+	}
+
+	/** Parse some delays from the command line.
+	 *  @param args	the command line.
+	 *  @param from	the first delay.
+	 *  @param to	one past the last delay.
+	 *  @return	the delays.
+	 */
+	private static long[] delays( String[] args, int from, int to ) {
+		if (to <= from) Errors.fatal( "Missing delays on command line" );
+		final long[] d = new long[to - from];
+		for (int i = from; i < to; i++) {
+			d[i - from] = Long.parseLong( args[i] );
+		}
+		return d;
+	}
+
+	/** main program that compares the queues
+	 *  @param args	the command line arguments, see above.
+	 */
+	public static void main( String[] args ) {
+		if (args.length < 2) {
+			Errors.fatal( "Missing counts on command line" );
+		}
+		int dash = 2;
+		while ((dash < args.length) && !"-".equals( args[dash] )) dash++;
+		try {
+			final int pending = Integer.parseInt( args[0] );
+			final long steps = Long.parseLong( args[1] );
+			final long[] gate = delays( args, 2, dash );
+			final long[] wire = delays( args, dash + 1, args.length );
+
+			// twice each, so that the second runs are compiled
+			for (int round = 0; round < 2; round++) {
+				final EventQueue h = new EventHeap();
+				System.out.println( "heap: " +
+					hold( h, pending, steps, gate, wire ) +
+					" ns per step"
+				);
+				final EventQueue c = CalendarQueue.forDelays( gate, wire );
+				System.out.println( c + ": " +
+					hold( c, pending, steps, gate, wire ) +
+					" ns per step"
+				);
+			}
+		} catch (NumberFormatException e) {
+			Errors.fatal( "Bad number on command line" );
+		}
+	}
+}
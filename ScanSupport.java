@@ -12,11 +12,23 @@ public class ScanSupport {
 	public static final Pattern name // letter followed by alphanumeric
 		= Pattern.compile( "[a-zA-Z][a-zA-Z0-9_]*|" );
 
+	/** Pattern for recognizing names of gates, possibly within instances
+	 */
+	public static final Pattern path // names separated by dots
+		= Pattern.compile(
+			"[a-zA-Z][a-zA-Z0-9_]*(\\.[a-zA-Z][a-zA-Z0-9_]*)*|"
+		);
+
 	/** Pattern for recognizing floating point numbers
 	 */
 	public static final Pattern numb // Digits.Digits or .Digits or nothing
 		= Pattern.compile( "[0-9]+\\.?[0-9]*|\\.[0-9]+|" );
 
+	/** Pattern for recognizing the digits of a truth table
+	 */
+	public static final Pattern digits // 0, x or 1, or nothing
+		= Pattern.compile( "[0x1]*" );
+
 	/** Pattern for recognzing whitespace excluding newlines
 	 */
 	public static final Pattern whitespace
@@ -35,6 +47,27 @@ public class ScanSupport {
 		return sc.match().group();
 	}
 
+	/** Get next gate name, such as <code>alu3.carry</code>, without
+	 *  skipping to next line.
+	 *  @param sc	the scanner from which end of line is scanned.
+	 *  @return	the name, if there was one, or an empty string.
+	 */
+	public static String nextPath( Scanner sc ) {
+		sc.skip( whitespace );
+		sc.skip( path );
+		return sc.match().group();
+	}
+
+	/** Get next truth table digits without skipping to next line.
+	 *  @param sc	the scanner from which end of line is scanned.
+	 *  @return	the digits, if there were any, or an empty string.
+	 */
+	public static String nextDigits( Scanner sc ) {
+		sc.skip( whitespace );
+		sc.skip( digits );
+		return sc.match().group();
+	}
+
 	/** Get next float without skipping lines (unlike sc.nextFloat()).
 	 *  @param sc	the scanner from which end of line is scanned.
 	 *  @return	the name, if there was one, or NaN if not.
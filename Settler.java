@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Detector of simulations that have settled, so that they can end early.
+ *
+ *  A circuit with no inputs from outside is deterministic: its future
+ *  depends only on the values at its gates and on the pending events,
+ *  with times taken relative to now, in the order the queue will take
+ *  them.  If that state is the same at two
+ *  print events, everything printed between them will be printed again
+ *  and again until the end, so the rows can be written out without
+ *  simulating.  Only whole cycles are skipped that way, and only while
+ *  every pending change stays due before the end, so that the last few
+ *  rows, which a change or a print due at the very end can decide, are
+ *  simulated as usual.  A circuit that has gone still is the simplest
+ *  case, a cycle of one steady row.
+ *
+ *  Comparing every state with every earlier one would take too long and
+ *  too much memory, so this keeps just one earlier state, as in Brent's
+ *  cycle finding algorithm: each state is compared with the one kept,
+ *  and the one kept is replaced whenever the number of prints since it
+ *  reaches a power of two.  A cycle is thus found by at most about twice
+ *  the print at which it first came round.  A hash of each state is
+ *  compared before the state itself, which is compared in full, so a
+ *  cycle is never reported by mistake.
+ *
+ *  What it has seen is kept here, not in the simulation, so only one
+ *  simulation at a time can be checked.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ *  @see TernaryLogic
+ */
+final class Settler {
+	private Settler() {} // no instances
+
+	/** the most characters of rows kept, after which it gives up */
+	private static final int MAX_TEXT = 1 << 24;
+
+	/** the state of the circuit at a print event */
+	private static final class State {
+		final long hash;
+		final byte[] previous;	// as printed before it
+		final byte[] output;
+		final byte[] current;
+		final int[] counts;
+		final long[] events;	// 5 values each, see events
+
+		/** Copy the state of a simulation.
+		 *  @param sim	the simulation.
+		 *  @param h	its hash.
+		 *  @param p	each gate's previously printed output.
+		 *  @param time	the time of the print event.
+		 */
+		State( Simulation sim, long h, byte[] p, long time ) {
+			hash = h;
+			previous = p.clone();
+			output = sim.output.clone();
+			current = sim.current.clone();
+			counts = sim.counts.clone();
+			events = events( sim, time );
+		}
+
+		/** Is a simulation in this state?
+		 *  @param sim	the simulation.
+		 *  @param h	the hash of its state.
+		 *  @param p	each gate's previously printed output.
+		 *  @param time	the time of the print event.
+		 *  @return	true if it is.
+		 */
+		boolean matches( Simulation sim, long h, byte[] p, long time ) {
+			return (h == hash)
+			&&     Arrays.equals( p, previous )
+			&&     Arrays.equals( sim.output, output )
+			&&     Arrays.equals( sim.current, current )
+			&&     Arrays.equals( sim.counts, counts )
+			&&     Arrays.equals( events( sim, time ), events );
+		}
+	}
+
+	/** the state kept for comparison, or null */
+	private static State kept = null;
+
+	/** the number of prints since the state kept, the rows printed
+	 *  since, including the row printed then, and their length
+	 */
+	private static long since = 0;
+	private static final ArrayList <String> rows = new ArrayList <String> ();
+	private static long text = 0;
+
+	/** the number of prints at which the state kept is replaced */
+	private static long power = 1;
+
+	/** set when the rows are too long to keep */
+	private static boolean given = false;
+
+	/** once settled, the time at which the cycle came round, in ticks */
+	static long time = -1;
+
+	/** once settled, the prints in the cycle, 1 if the circuit is still */
+	static int period = 0;
+
+	/** once settled, whether the circuit is still */
+	static boolean still = false;
+
+	/** once settled, how long after then the last pending change is due */
+	static long horizon = 0;
+
+	/** List the pending events.  The one object event, the end of the
+	 *  simulation, is listed by kind alone, since it comes after all
+	 *  that is printed; its place in the list still counts, since with
+	 *  a heap that can decide which of the changes due together is taken
+	 *  first.
+	 *  @param sim	the simulation.
+	 *  @param now	the current time.
+	 *  @return	the time relative to now, kind, target, old and new value
+	 *  of each in turn, in the order of EventQueue.pending.
+	 */
+	private static long[] events( Simulation sim, long now ) {
+		final EventQueue q = sim.eventSet;
+		final int[] order = q.pending();
+		final long[] e = new long[5 * order.length];
+		for (int i = 0; i < order.length; i++) {
+			final int s = order[i];
+			if (q.kinds[s] == Simulation.OBJECT) {
+				e[5 * i + 1] = Simulation.OBJECT;
+				continue;
+			}
+			e[5 * i] = q.times[s] - now;
+			e[5 * i + 1] = q.kinds[s];
+			e[5 * i + 2] = q.targets[s];
+			e[5 * i + 3] = q.oldvs[s];
+			e[5 * i + 4] = q.newvs[s];
+		}
+		return e;
+	}
+
+	/** Hash the state of the simulation; the order of the pending events
+	 *  is left out, so that they need not be sorted.
+	 *  @param sim	the simulation.
+	 *  @param p	each gate's previously printed output.
+	 *  @param now	the time of the print event.
+	 *  @return	the hash.
+	 */
+	private static long hash( Simulation sim, byte[] p, long now ) {
+		long h = Arrays.hashCode( p );
+		h = 31 * h + Arrays.hashCode( sim.output );
+		h = 31 * h + Arrays.hashCode( sim.current );
+		h = 31 * h + Arrays.hashCode( sim.counts );
+		final EventQueue q = sim.eventSet;
+		for ( int s: q.live() ) {
+			if (q.kinds[s] == Simulation.OBJECT) continue;
+			long x = q.times[s] - now;
+			x = x * 0x9E3779B97F4A7C15L + q.kinds[s];
+			x = x * 0x9E3779B97F4A7C15L + q.targets[s];
+			x = x * 0x9E3779B97F4A7C15L + (q.oldvs[s] << 2 | q.newvs[s]);
+			h = h + (x ^ (x >>> 29)) * 0xBF58476D1CE4E5B9L;
+		}
+		return h;
+	}
+
+	/** Check for a cycle at a print event, before printing.
+	 *  @param sim	the simulation printing.
+	 *  @param now	the time of the print event.
+	 *  @param p	each gate's previously printed output.
+	 *  @param row	the row about to be printed.
+	 *  @return	the rows that will be printed from now on, over and over,
+	 *  or null if no cycle has been found.
+	 */
+	static List <String> check(
+		Simulation sim, long now, byte[] p, String row
+	) {
+		if (given || (time >= 0)) return null;
+		if (sim.objectsPending() != 1) {
+			// something other than the end is to come, from outside
+			kept = null;
+			return null;
+		}
+
+		final byte[] current = sim.current;
+		if ((sim.eventSet.size() == 1)
+		&&  Arrays.equals( p, 0, p.length, current, 0, p.length )) {
+			time = now;
+			period = 1;
+			still = true;
+			return List.of( row );
+		}
+
+		final long h = hash( sim, p, now );
+		if ((kept != null) && kept.matches( sim, h, p, now )) {
+			period = (int)since;
+			time = now;
+			final EventQueue q = sim.eventSet;
+			for ( int s: q.live() ) {
+				if (q.kinds[s] == Simulation.OBJECT) continue;
+				horizon = Math.max( horizon, q.times[s] - now );
+			}
+			return rows;
+		}
+		if ((kept == null) || (since == power)) {
+			if (kept != null) power = 2 * power;
+			kept = new State( sim, h, p, now );
+			since = 0;
+			rows.clear();
+			text = 0;
+		}
+		since = since + 1;
+		text = text + row.length();
+		if (text > MAX_TEXT) {
+			given = true;
+			kept = null;
+			rows.clear();
+			return null;
+		}
+		rows.add( row );
+		return null;
+	}
+}
@@ -1,20 +1,27 @@
-import java.util.PriorityQueue;
-
-/** Discrete event simulation support framework
+/** Discrete event simulation support framework.
+ *
+ *  Each simulation holds the state of its own circuit and its own event
+ *  queue, so any number of them can run at once, each on a thread of its
+ *  own; see {@link SimulationContext}.  Set the modes of a simulation,
+ *  then start it, schedule its object events, and run it.
+ *
  *  @author Ryan Boehm
  */
-class Simulation {
+final class Simulation {
 
         /** Events are the core of the control structure of the simulation.
+         *  Frequent events, value changes on gates and wires, are not
+         *  objects; they are scheduled by kind with {@code schedule}.
+         *  Rare events such as printing are subclasses of this class.
          */
         public static abstract class Event {
-                /** Each event has a time */
-                float time;
+                /** Each event has a time, in ticks, see Netlist */
+                long time;
 
                 /** Construct and initialize a new <code>Event</code>.
                  *  @param t    the <code>time</code> of the event.
                  */
-                Event( float t ) {
+                Event( long t ) {
                         time = t;
                 };
 
@@ -24,29 +31,346 @@ class Simulation {
                 public abstract void trigger();
         }
 
+	// the kinds of primitive events; the target of each is an index
+	static final int OBJECT = 0;      // target indexes objects
+	static final int GATE_INPUT = 1;  // target is a gate
+	static final int GATE_OUTPUT = 2; // target is a gate
+	static final int WIRE_INPUT = 3;  // target is a wire
+	static final int WIRE_OUTPUT = 4; // target is a wire
+	static final int FANOUT = 5;      // target is a group of wires
+
+	/** When set, output changes go straight to the destination gates of
+	 *  the outgoing wires instead of passing through the input and output
+	 *  events of each wire.  The wires leaving a gate are grouped by their
+	 *  delay, see Netlist.groupFanout, and one event takes the change to
+	 *  all the gates of a group, so a gate with a wide fanout adds only an
+	 *  event or two to the queue.  The waveforms are the same either way.
+	 */
+	boolean fused = false;
+
+	/** When set, gates have inertial delay: a change of output that is
+	 *  still pending when the gate's inputs call for another value is
+	 *  cancelled, so pulses shorter than the delay of the gate never
+	 *  get out of it.  Unless delta is set, inputs that change at the
+	 *  same time are seen one at a time, so a zero-width glitch can still
+	 *  move a pending change.
+	 */
+	boolean inertial = false;
+
+	/** the number of pending output changes cancelled or moved */
+	long suppressed = 0;
+
+	/** When set, all the input changes at one time are made before any
+	 *  gate is evaluated, and then each gate whose inputs changed is
+	 *  evaluated just once, so that the order of events with the same
+	 *  time cannot matter.
+	 */
+	boolean delta = false;
+
+	// in delta mode, the number of input changes and of evaluations
+	long inputChanges = 0;
+	long evaluations = 0;
+
+	// ***** the state of the circuit, set up by start *****
+
+	/** the circuit being simulated */
+	Netlist net;
+
+	/** for logic values, counts[3*g + v] is how many inputs of gate g
+	 *  have that value; for table gates, counts[3*g] holds the packed
+	 *  values of the inputs instead, see Netlist
+	 */
+	int[] counts;
+
+	/** each gate's most recently computed output value */
+	byte[] output;
+
+	/** each gate's current output, for printing */
+	byte[] current;
+
+	/** in inertial mode, the handle of each gate's pending output
+	 *  change in the queue, or -1 if there is none
+	 */
+	private int[] pending;
+
+	// in delta mode, the gates with input changes at the current time
+	private boolean[] dirty;
+	private int[] worklist;
+	private int dirtyCount = 0;
+
 	/** Events are queued for {@code run} retrieve in chronological order.
+	 *  Object events queue like any other, so printing at some time shows
+	 *  the changes due then that come out of the queue before it; with
+	 *  the default EventHeap, those are the changes that printed then
+	 *  before there were kinds of event.
 	 */
-	private static final PriorityQueue <Event> eventSet =
-		new PriorityQueue <Event> (
-			(Event e1, Event e2)->Float.compare( e1.time, e2.time )
-		);
+	final EventQueue eventSet;
+
+	// pending object events, indexed by the target of their queue entry
+	private Event[] objects = new Event[16];
+	private int[] freeObjects = new int[16];
+	private int freeCount = 0;
+	private int objectCount = 0;
+
+	/** set by stop, to end run */
+	boolean stopped = false;
+
+	/** Make a simulation that queues its events in an EventHeap */
+	Simulation() {
+		this( new EventHeap() );
+	}
+
+	/** Make a simulation that queues its events in a queue of its own.
+	 *  @param q	an empty queue.
+	 *  @see EventHeap
+	 *  @see CalendarQueue
+	 */
+	Simulation( EventQueue q ) {
+		eventSet = q;
+	}
 
 	/** Users call schedule to schedule an event at its inherent time.
 	 *  usually a later time but possibly the current time.
 	 *  @param e specifies when the event should occur.
 	 */
-	public static void schedule( Event e ) {
-		eventSet.add( e );
+	public void schedule( Event e ) {
+		final int i;
+		if (freeCount > 0) {
+			freeCount = freeCount - 1;
+			i = freeObjects[freeCount];
+		} else {
+			if (objectCount == objects.length) {
+				objects = java.util.Arrays.copyOf(
+					objects, objectCount * 2
+				);
+				freeObjects = java.util.Arrays.copyOf(
+					freeObjects, objectCount * 2
+				);
+			}
+			i = objectCount;
+			objectCount = objectCount + 1;
+		}
+		objects[i] = e;
+		eventSet.add( e.time, OBJECT, i, 0, 0 );
+	}
+
+	/** How many object events are pending?
+	 *  @return the count of them.
+	 */
+	int objectsPending() {
+		return objectCount - freeCount;
+	}
+
+	/** Trigger an object event just taken from the queue.
+	 *  @param i	the target of the queue entry.
+	 */
+	void trigger( int i ) {
+		final Event e = objects[i];
+		objects[i] = null;
+		freeObjects[freeCount] = i;
+		freeCount = freeCount + 1;
+		e.trigger();
+	}
+
+	/** Schedule a primitive event without allocating anything.
+	 *  @param time	the time of the event, in ticks.
+	 *  @param kind	the kind of the event, for example {@code GATE_INPUT}.
+	 *  @param target	the index of the gate or wire affected.
+	 *  @param oldv	the former logic value.
+	 *  @param newv	the new logic value.
+	 */
+	public void schedule(
+		long time, int kind, int target, int oldv, int newv
+	) {
+		eventSet.add( time, kind, target, oldv, newv );
+	}
+
+	/** Set up the state of a circuit and schedule its initial events.
+	 *  All inputs and outputs start out unknown; gates that produce some
+	 *  other value from unknown inputs change after their delay.
+	 *  @param n	the compiled circuit.
+	 */
+	public void start( Netlist n ) {
+		net = n;
+		if (fused) n.groupFanout();
+		counts = new int[3 * n.gateCount];
+		output = new byte[n.gateCount];
+		current = new byte[n.gateCount];
+		if (inertial) {
+			pending = new int[n.gateCount];
+			java.util.Arrays.fill( pending, -1 );
+		}
+		if (delta) {
+			dirty = new boolean[n.gateCount];
+			worklist = new int[n.gateCount];
+		}
+
+		for (int g = 0; g < n.gateCount; g++) {
+			n.unknownInputs( g, counts );
+			output[g] = 1;
+			current[g] = 1;
+
+			final int v = n.value( g, counts );
+			if (v != 1) {
+				final int s = eventSet.add(
+					n.delay[g], GATE_OUTPUT, g, 1, v
+				);
+				if (inertial) pending[g] = s;
+				output[g] = (byte)v;
+			}
+		}
+	}
+
+	/** simulate an input change to a gate
+	 *  @param time	the time at which the input changes.
+	 *  @param g	the gate where the input changes.
+	 *  @param oldv	the previous logic value carried to the gate, plus
+	 *  4 times the weight of the input if the gate is a table gate.
+	 *  @param newv	the new logic value carried to the gate.
+	 */
+	private void gateInput( long time, int g, int oldv, int newv ) {
+		Netlist.input( counts, 3 * g, oldv >>> 2, oldv & 3, newv );
+
+		if (delta) { // evaluate later, see flush
+			inputChanges = inputChanges + 1;
+			if (!dirty[g]) {
+				dirty[g] = true;
+				worklist[dirtyCount] = g;
+				dirtyCount = dirtyCount + 1;
+			}
+		} else {
+			evaluate( time, g );
+		}
+	}
+
+	/** Evaluate each gate whose inputs changed at the current time,
+	 *  once all those changes have been made.
+	 *  @param time	the current time.
+	 */
+	private void flush( long time ) {
+		evaluations = evaluations + dirtyCount;
+		for (int i = 0; i < dirtyCount; i++) {
+			final int g = worklist[i];
+			dirty[g] = false;
+			evaluate( time, g );
+		}
+		dirtyCount = 0;
+	}
+
+	/** evaluate a gate and schedule any change of its output
+	 *  @param time	the time at which its inputs changed.
+	 *  @param g	the gate.
+	 */
+	private void evaluate( long time, int g ) {
+		final int newOut = net.value( g, counts );
+		final int old = output[g];
+		if (old == newOut) return;
+		output[g] = (byte)newOut;
+
+		if (inertial && (pending[g] >= 0)) {
+			// the pending change has not happened, so replace it
+			suppressed = suppressed + 1;
+			if (newOut == current[g]) { // back to where it was
+				eventSet.cancel( pending[g] );
+				pending[g] = -1;
+			} else {
+				eventSet.reschedule(
+					pending[g], time + net.delay[g], current[g], newOut
+				);
+			}
+		} else {
+			final int s = eventSet.add(
+				time + net.delay[g], GATE_OUTPUT, g, old, newOut
+			);
+			if (inertial) pending[g] = s;
+		}
+	}
+
+	/** simulate a change reaching the gates of a group of wires at once
+	 *  @param time	the time at which their inputs change.
+	 *  @param k	the group, see Netlist.groupFanout.
+	 *  @param oldv	the previous logic value carried to the gates.
+	 *  @param newv	the new logic value carried to the gates.
+	 */
+	private void fanout( long time, int k, int oldv, int newv ) {
+		final int last = net.groupFirst[k + 1];
+		for (int m = net.groupFirst[k]; m < last; m++) {
+			gateInput(
+				time, net.memberDst[m],
+				oldv | (net.memberWeight[m] << 2), newv
+			);
+		}
+	}
+
+	/** simulate an output change from a gate
+	 *  @param time	the time at which the output changes.
+	 *  @param g	the gate where the output changes.
+	 *  @param oldv	the previous logic value that left the gate.
+	 *  @param newv	the new logic value that exits the gate.
+	 */
+	private void gateOutput( long time, int g, int oldv, int newv ) {
+		if (inertial) pending[g] = -1;
+		final int last = net.fanout[g + 1];
+		if (fused) {
+			final int groups = net.groups[g + 1];
+			for (int k = net.groups[g]; k < groups; k++) {
+				schedule( time + net.groupDelay[k], FANOUT, k, oldv, newv );
+			}
+		} else {
+			for (int e = net.fanout[g]; e < last; e++) {
+				schedule( time, WIRE_INPUT, e, oldv, newv );
+			}
+		}
+		current[g] = (byte)newv;
+		if (VcdWriter.isOpen()) VcdWriter.change( time, g, newv );
+		if (Levelizer.active) Levelizer.change( time, g, newv );
+	}
+
+	/** End the simulation; an object event calls this so that run
+	 *  returns as soon as it has been triggered.
+	 */
+	void stop() {
+		stopped = true;
 	}
 
 	/** the main program should build the model,
 	 *  this inolves scheduling some initial events
 	 *  and then, just once, it should call {@code run}.
+	 *  This returns once the queue is empty or stop has been called.
 	 */
-	public static void run() {
-		while (!eventSet.isEmpty()) {
-			Event e = eventSet.remove();
-			e.trigger();
+	public void run() {
+		final EventQueue q = eventSet;
+		while (!q.isEmpty()) {
+			q.remove();
+			switch (q.kind) {
+			case GATE_INPUT:
+				gateInput( q.time, q.target, q.oldv, q.newv );
+				break;
+			case GATE_OUTPUT:
+				gateOutput( q.time, q.target, q.oldv, q.newv );
+				break;
+			case FANOUT:
+				fanout( q.time, q.target, q.oldv, q.newv );
+				break;
+			case WIRE_INPUT: // the change reaches the far end later
+				schedule(
+					q.time + net.wireDelay[q.target], WIRE_OUTPUT,
+					q.target, q.oldv, q.newv
+				);
+				break;
+			case WIRE_OUTPUT:
+				schedule(
+					q.time, GATE_INPUT, net.wireDst[q.target],
+					q.oldv | (net.wireWeight[q.target] << 2), q.newv
+				);
+				break;
+			default: // OBJECT
+				trigger( q.target );
+				if (stopped) return;
+			}
+			if ((dirtyCount > 0) && (q.peekTime() != q.time)) {
+				flush( q.time );
+			}
 		}
 	}
 }
@@ -0,0 +1,389 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** One simulation job, holding all of its state itself.
+ *
+ *  Any number of these can run at once in one JVM, each on a thread of
+ *  its own, for example from a thread pool.  A context owns its compiled
+ *  circuit, its {@link Simulation}, which is the same engine that
+ *  {@link TernaryLogic} runs, a sink for its errors and warnings and the
+ *  stream its output is printed on.  Running it gives a Result instead of
+ *  exiting the application, and fatal errors end just the run they happen
+ *  in.
+ *
+ *  The output is just what {@link TernaryLogic} prints with the same
+ *  simulation modes, -fused, -inertial or -delta, and no other options.
+ *  Reading circuit files still goes through the gate and wire lists of
+ *  {@link TernaryLogic}, so contexts read their files one at a time; the
+ *  compiled circuit is never changed, and from there on contexts share
+ *  nothing.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ *  @see TernaryLogic
+ */
+public final class SimulationContext implements Callable <SimulationContext.Result> {
+
+	/** held while a context reads its circuit file */
+	private static final Object loading = new Object();
+
+	// ***** the job *****
+
+	private final File file;	// or null, to read text
+	private final byte[] text;
+	private final float interval;
+	private final float limit;
+	private final Appendable out;
+
+	// the modes of the simulation, see Simulation
+	private boolean fused = false;
+	private boolean inertial = false;
+	private boolean delta = false;
+
+	/** where this context's errors go */
+	private final Errors.Sink errors = new Errors.Sink();
+
+	// ***** the state of the simulation, set up by call *****
+
+	private Netlist net;
+	private Simulation sim;
+	private byte[] previous;	// each gate's previously printed output
+	private long rows = 0;		// rows printed
+
+	/** The outcome of running a context */
+	public static final class Result {
+		/** true if the circuit was simulated to the time limit */
+		public final boolean ok;
+
+		/** the warnings and errors, one per line */
+		public final String errors;
+
+		/** the number of rows of output printed */
+		public final long rows;
+
+		/** the number of events handled */
+		public final long events;
+
+		/** how long the run took, in nanoseconds */
+		public final long nanos;
+
+		/** the output of each gate at the end, 0, 1 or 2 for false,
+		 *  unknown or true, or null if the circuit was not simulated
+		 */
+		private final byte[] values;
+
+		private Result(
+			boolean ok, String errors, long rows, long events,
+			long nanos, byte[] values
+		) {
+			this.ok = ok;
+			this.errors = errors;
+			this.rows = rows;
+			this.events = events;
+			this.nanos = nanos;
+			this.values = values;
+		}
+
+		/** Get the output of a gate at the end of the run.
+		 *  @param g	the index of the gate, in order of definition.
+		 *  @return	0, 1 or 2 for false, unknown or true.
+		 */
+		public int value( int g ) {
+			return values[g];
+		}
+
+		/** Describe the outcome in one line.
+		 *  @return	the description.
+		 */
+		public String toString() {
+			return(
+				(ok ? "ok, " : "failed, ") + rows + " rows, " +
+				events + " events in " + nanos / 1000000 + " ms"
+			);
+		}
+	}
+
+	/** Make a context; it does nothing until called.
+	 *  @param f	the circuit file.
+	 *  @param interval	the interval between printed rows.
+	 *  @param limit	the time at which to stop.
+	 *  @param out	where to print; it is used only by the thread that
+	 *  calls this context.
+	 */
+	public SimulationContext( File f, float interval, float limit, Appendable out ) {
+		this.file = f;
+		this.text = null;
+		this.interval = interval;
+		this.limit = limit;
+		this.out = out;
+	}
+
+	/** Make a context for a circuit held in memory.
+	 *  @param text	the text of the circuit file.
+	 *  @param interval	the interval between printed rows.
+	 *  @param limit	the time at which to stop.
+	 *  @param out	where to print; it is used only by the thread that
+	 *  calls this context.
+	 */
+	public SimulationContext( byte[] text, float interval, float limit, Appendable out ) {
+		this.file = null;
+		this.text = text;
+		this.interval = interval;
+		this.limit = limit;
+		this.out = out;
+	}
+
+	/** Choose the modes of the simulation; by default, none is set.
+	 *  @param fused	see Simulation#fused.
+	 *  @param inertial	see Simulation#inertial.
+	 *  @param delta	see Simulation#delta.
+	 *  @return	this context.
+	 */
+	public SimulationContext modes(
+		boolean fused, boolean inertial, boolean delta
+	) {
+		this.fused = fused;
+		this.inertial = inertial;
+		this.delta = delta;
+		return this;
+	}
+
+	/** Read, check and compile the circuit, as TernaryLogic does.
+	 *  @return	the compiled circuit, or null if it has errors.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	private Netlist load() throws IOException {
+		synchronized (loading) {
+			TernaryLogic.clearNetwork();
+			try {
+				if (file != null) {
+					NetlistLoader.load( file );
+				} else {
+					NetlistLoader.load( text );
+				}
+				TernaryLogic.checkNetwork();
+				if (Errors.count() > 0) return null;
+				final Module.Scope top = TernaryLogic.top;
+				if (!top.instances.isEmpty()) {
+					final Module flat = Module.flatten( top, false );
+					return Netlist.compile(
+						flat, top.instances.toArray( new Module.Instance[0] ),
+						Netlist.timebase( flat.timebase(), interval, limit )
+					);
+				}
+				return Netlist.compile(
+					top.gates, top.wires,
+					Netlist.timebase( top.gates, top.wires, interval, limit )
+				);
+			} finally {
+				TernaryLogic.clearNetwork();
+			}
+		}
+	}
+
+	/** Run the simulation on the calling thread.
+	 *  @return	the outcome; this never throws.
+	 */
+	public Result call() {
+		final long start = System.nanoTime();
+		Errors.redirect( errors );
+		try {
+			net = load();
+			if (net == null) return result( false, start );
+			final long ticks = net.ticks( interval );
+			if (ticks <= 0) Errors.fatal(
+				"Print interval " + interval + " is less than one tick"
+			);
+			sim = new Simulation();
+			sim.fused = fused;
+			sim.inertial = inertial;
+			sim.delta = delta;
+			sim.start( net );
+			begin( ticks );
+			sim.schedule( new Exit( net.ticks( limit ) ) );
+			sim.run();
+			return result( true, start );
+		} catch (IOException e) {
+			errors.messages.append( "Fatal error: Could not read '" );
+			errors.messages.append( file ).append( "'\n" );
+		} catch (Errors.FatalError e) {
+			// the message is already in errors
+		} catch (RuntimeException e) {
+			errors.messages.append( "Fatal error: " ).append( e ).append( '\n' );
+		} finally {
+			Errors.redirect( null );
+		}
+		return result( false, start );
+	}
+
+	/** Package up the outcome of a run.
+	 *  @param ok	true if the run got to the time limit.
+	 *  @param start	when it started, from System.nanoTime.
+	 *  @return	the outcome.
+	 */
+	private Result result( boolean ok, long start ) {
+		return new Result(
+			ok, errors.messages.toString(), rows,
+			(sim == null) ? 0 : sim.eventSet.removed,
+			System.nanoTime() - start, ok ? sim.current.clone() : null
+		);
+	}
+
+	/** Print the names of the gates and schedule the first row, as
+	 *  TernaryLogic.initPrint does.
+	 *  @param ticks	the interval between printed rows.
+	 */
+	private void begin( long ticks ) {
+		sim.schedule( new Print( 0, ticks ) );
+		previous = new byte[net.gateCount];
+		java.util.Arrays.fill( previous, (byte)1 ); // unknown
+
+		final StringBuilder head = new StringBuilder();
+		for (int g = 0; g < net.gateCount; g++) {
+			head.append( ' ' ).append( net.name( g ) );
+		}
+		print( head );
+	}
+
+	/** Event that prints a row, and schedules the next */
+	private final class Print extends Simulation.Event {
+		private final long interval;
+
+		/** Construct a print event
+		 *  @param time	the time at which to print.
+		 *  @param i	the interval between print events.
+		 */
+		Print( long time, long i ) {
+			super( time );
+			interval = i;
+		}
+
+		/** Every event must provide a trigger method */
+		public void trigger() {
+			final byte[] current = sim.current;
+			final StringBuilder row = new StringBuilder();
+			for (int g = 0; g < current.length; g++) {
+				row.append( ' ' ).append(
+					TernaryLogic.printValues[previous[g]][current[g]]
+				);
+				previous[g] = current[g];
+			}
+			print( row );
+			rows = rows + 1;
+			sim.schedule( new Print( time + interval, interval ) );
+		}
+	}
+
+	/** Event that ends the simulation */
+	private final class Exit extends Simulation.Event {
+		Exit( long t ) {
+			super( t );
+		}
+
+		/** Every event must provide a trigger method */
+		public void trigger() {
+			sim.stop();
+		}
+	}
+
+	/** Print a line of output.
+	 *  @param line	the text, without the line end.
+	 */
+	private void print( CharSequence line ) {
+		try {
+			out.append( line ).append( '\n' );
+		} catch (IOException e) {
+			Errors.fatal( "Could not write output" );
+		}
+	}
+
+	/** Run many simulations at once, printing the outcome of each.
+	 *  The output of the k'th job, counting from 0, is written to
+	 *  FILE.k.out beside its circuit file.
+	 *  @param args	optionally -threads N, for the size of the thread
+	 *  pool, and -fused, -inertial or -delta, for the modes of every
+	 *  job, then FILE INTERVAL LIMIT for each job.
+	 */
+	public static void main( String[] args ) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean fused = false;
+		boolean inertial = false;
+		boolean delta = false;
+		int a = 0;
+		while ((a < args.length) && args[a].startsWith( "-" )) {
+			if ("-threads".equals( args[a] )) {
+				a = a + 1;
+				if (a == args.length) Errors.fatal( "-threads needs a number" );
+				try {
+					threads = Integer.parseInt( args[a] );
+				} catch (NumberFormatException e) {
+					Errors.fatal( "-threads needs a number" );
+				}
+				if (threads < 1) Errors.fatal(
+					"-threads needs a positive number"
+				);
+			} else if ("-fused".equals( args[a] )) {
+				fused = true;
+			} else if ("-inertial".equals( args[a] )) {
+				inertial = true;
+			} else if ("-delta".equals( args[a] )) {
+				delta = true;
+			} else {
+				Errors.fatal( "Unknown option '" + args[a] + "'" );
+			}
+			a = a + 1;
+		}
+		if ((args.length == a) || ((args.length - a) % 3 != 0)) {
+			Errors.fatal( "Expected FILE INTERVAL LIMIT for each job" );
+		}
+
+		final ExecutorService pool = Executors.newFixedThreadPool( threads );
+		final List <Future <Result>> results = new ArrayList <Future <Result>> ();
+		final List <BufferedWriter> outputs = new ArrayList <BufferedWriter> ();
+		try {
+			for (int k = 0; a < args.length; k++, a = a + 3) {
+				final float interval;
+				final float limit;
+				try {
+					interval = Float.parseFloat( args[a + 1] );
+					limit = Float.parseFloat( args[a + 2] );
+				} catch (NumberFormatException e) {
+					Errors.fatal(
+						"'" + args[a + 1] + " " + args[a + 2] +
+						"' is not a floating interval and limit"
+					);
+					return;
+				}
+				final BufferedWriter w = new BufferedWriter(
+					new FileWriter( args[a] + "." + k + ".out" )
+				);
+				outputs.add( w );
+				results.add( pool.submit( new SimulationContext(
+					new File( args[a] ), interval, limit, w
+				).modes( fused, inertial, delta ) ) );
+			}
+
+			for (int k = 0; k < results.size(); k++) {
+				final Result r = results.get( k ).get();
+				outputs.get( k ).close();
+				System.out.print( r.errors );
+				System.out.println( "Job " + k + ": " + r );
+			}
+		} catch (IOException e) {
+			Errors.fatal( "Could not write output" );
+		} catch (InterruptedException | ExecutionException e) {
+			Errors.fatal( "Interrupted while simulating" );
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Simulation service on a loopback HTTP port.
+ *
+ *  A long running JVM that simulates circuits on request, so that short
+ *  jobs do not each pay for starting a JVM and compiling the simulator
+ *  again.  Jobs are posted to <code>/run</code>, with the print interval
+ *  and the time limit in the query and the circuit file as the body:
+ *  <pre>
+ *  curl --data-binary @circuit.txt 'http://127.0.0.1:7575/run?interval=1&amp;limit=60'
+ *  </pre>
+ *  The output, just as {@link TernaryLogic} prints it, is streamed back
+ *  as it is printed, followed by any warnings and a last line, starting
+ *  with <code>--</code>, that gives the outcome and latency of the job.
+ *  <code>/metrics</code> reports the latency and throughput of all the
+ *  jobs so far.
+ *
+ *  Each job runs in a {@link SimulationContext} on a thread of its own,
+ *  a virtual thread where the JVM has them.
+ *
+ *  @author Ryan Boehm
+ *  @see SimulationContext
+ */
+public final class SimulationServer {
+	private SimulationServer() {} // no instances
+
+	/** the port used unless -port is given */
+	private static final int PORT = 7575;
+
+	/** the number of latency buckets; bucket i counts jobs that took
+	 *  from 2 to the i up to 2 to the i+1 microseconds
+	 */
+	private static final int BUCKETS = 40;
+
+	// ***** metrics, guarded by the class *****
+
+	private static final long started = System.nanoTime();
+	private static long jobs = 0;		// jobs finished
+	private static long failed = 0;		// of which failed
+	private static int running = 0;		// jobs under way
+	private static long events = 0;		// events in all jobs
+	private static long totalNanos = 0;	// latency of all jobs
+	private static long maxNanos = 0;
+	private static final long[] latency = new long[BUCKETS];
+
+	/** Make an executor that runs each task on a new virtual thread if
+	 *  this JVM has them, otherwise on a pooled platform thread.
+	 *  @return	the executor.
+	 */
+	private static ExecutorService jobExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod(
+				"newVirtualThreadPerTaskExecutor"
+			).invoke( null );
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/** Get a parameter from the query of a request.
+	 *  @param u	the URI of the request.
+	 *  @param name	the name of the parameter.
+	 *  @return	its value, or null if it is not there.
+	 */
+	private static String parameter( URI u, String name ) {
+		final String q = u.getQuery();
+		if (q == null) return null;
+		for ( String p: q.split( "&" ) ) {
+			if (p.startsWith( name + "=" )) {
+				return p.substring( name.length() + 1 );
+			}
+		}
+		return null;
+	}
+
+	/** Send a short plain text response.
+	 *  @param x	the exchange.
+	 *  @param status	the HTTP status.
+	 *  @param text	the body.
+	 *  @throws IOException	if it cannot be sent.
+	 */
+	private static void reply( HttpExchange x, int status, String text )
+		throws IOException
+	{
+		final byte[] b = text.getBytes( StandardCharsets.UTF_8 );
+		x.getResponseHeaders().set( "Content-Type", "text/plain" );
+		x.sendResponseHeaders( status, b.length );
+		x.getResponseBody().write( b );
+		x.close();
+	}
+
+	/** Run one job, streaming its output back.
+	 *  @param x	the exchange.
+	 *  @throws IOException	if the response cannot be sent.
+	 */
+	private static void run( HttpExchange x ) throws IOException {
+		if (!"POST".equals( x.getRequestMethod() )) {
+			reply( x, 405, "POST a circuit to /run\n" );
+			return;
+		}
+		final float interval;
+		final float limit;
+		try {
+			interval = Float.parseFloat(
+				parameter( x.getRequestURI(), "interval" )
+			);
+			limit = Float.parseFloat(
+				parameter( x.getRequestURI(), "limit" )
+			);
+		} catch (NullPointerException | NumberFormatException e) {
+			reply( x, 400, "Needs floating interval and limit parameters\n" );
+			return;
+		}
+		final byte[] text = x.getRequestBody().readAllBytes();
+
+		synchronized (SimulationServer.class) {
+			running = running + 1;
+		}
+		x.getResponseHeaders().set( "Content-Type", "text/plain" );
+		x.sendResponseHeaders( 200, 0 ); // streamed
+		final Writer out = new OutputStreamWriter(
+			x.getResponseBody(), StandardCharsets.UTF_8
+		);
+		SimulationContext.Result r = null;
+		try {
+			r = new SimulationContext( text, interval, limit, out ).call();
+			out.write( r.errors );
+			out.write( "-- " + r + "\n" );
+		} finally {
+			synchronized (SimulationServer.class) {
+				running = running - 1;
+				if (r != null) record( r );
+			}
+			out.close();
+		}
+	}
+
+	/** Add a finished job to the metrics; hold the class lock.
+	 *  @param r	the outcome of the job.
+	 */
+	private static void record( SimulationContext.Result r ) {
+		jobs = jobs + 1;
+		if (!r.ok) failed = failed + 1;
+		events = events + r.events;
+		totalNanos = totalNanos + r.nanos;
+		if (r.nanos > maxNanos) maxNanos = r.nanos;
+		final long micros = Math.max( 1, r.nanos / 1000 );
+		latency[Math.min(
+			BUCKETS - 1, 63 - Long.numberOfLeadingZeros( micros )
+		)]++;
+	}
+
+	/** Estimate a latency percentile from the buckets; hold the lock.
+	 *  @param p	the fraction of jobs, such as 0.99.
+	 *  @return	the upper end of the bucket it falls in, or the
+	 *  greatest latency if that is less, in ms.
+	 */
+	private static double percentile( double p ) {
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen = seen + latency[i];
+			if (seen >= p * jobs) {
+				return Math.min( (1L << (i + 1)) / 1000.0, maxNanos / 1e6 );
+			}
+		}
+		return maxNanos / 1e6;
+	}
+
+	/** Report the metrics.
+	 *  @param x	the exchange.
+	 *  @throws IOException	if the response cannot be sent.
+	 */
+	private static void metrics( HttpExchange x ) throws IOException {
+		final String text;
+		synchronized (SimulationServer.class) {
+			final double up = (System.nanoTime() - started) / 1e9;
+			text =
+				"jobs " + jobs + "\n" +
+				"failed " + failed + "\n" +
+				"running " + running + "\n" +
+				"uptime_s " + up + "\n" +
+				"jobs_per_s " + jobs / up + "\n" +
+				"events_per_s " + events / up + "\n" +
+				"latency_mean_ms " +
+				(jobs == 0 ? 0.0 : totalNanos / 1e6 / jobs) + "\n" +
+				"latency_p50_ms " + percentile( 0.50 ) + "\n" +
+				"latency_p99_ms " + percentile( 0.99 ) + "\n" +
+				"latency_max_ms " + maxNanos / 1e6 + "\n";
+		}
+		reply( x, 200, text );
+	}
+
+	/** Start the service; it runs until the JVM is stopped.
+	 *  @param args	optionally -port N.
+	 */
+	public static void main( String[] args ) {
+		int port = PORT;
+		if ((args.length == 2) && "-port".equals( args[0] )) {
+			try {
+				port = Integer.parseInt( args[1] );
+			} catch (NumberFormatException e) {
+				Errors.fatal( "-port needs a number" );
+			}
+		} else if (args.length != 0) {
+			Errors.fatal( "Expected no arguments or -port N" );
+		}
+
+		try {
+			final HttpServer s = HttpServer.create(
+				new InetSocketAddress( InetAddress.getLoopbackAddress(), port ),
+				0
+			);
+			s.createContext( "/run", SimulationServer::run );
+			s.createContext( "/metrics", SimulationServer::metrics );
+			s.setExecutor( jobExecutor() );
+			s.start();
+			System.err.println(
+				"Serving on http://127.0.0.1:" + s.getAddress().getPort()
+			);
+		} catch (IOException e) {
+			Errors.fatal( "Could not listen on port " + port );
+		}
+	}
+}
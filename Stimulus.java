@@ -0,0 +1,223 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/** Stimulus for the input gates of a circuit, read from a file.
+ *
+ *  Each line of the file gives a time, the name of an input gate and
+ *  the value its output takes then, 0, x or 1, for example
+ *  <pre>
+ *  0.0 A 1
+ *  2.5 B x  -- comments start with two dashes
+ *  </pre>
+ *  Times are in the units of the circuit file, and must not decrease
+ *  from one line to the next.  The timebase is picked before the file is
+ *  read, so a time that is not a whole number of ticks is rounded to the
+ *  nearest tick, with a warning; -timebase makes such times exact.
+ *
+ *  The file may be far too long to hold in memory, so it is read a window
+ *  at a time: at most WINDOW changes are scheduled at once, and when the
+ *  simulation reaches the time of the first change not yet scheduled, an
+ *  event reads the next window.  The file itself is read through a fixed
+ *  buffer, so memory does not grow however long it is.
+ *
+ *  @author Ryan Boehm
+ *  @see InputGate
+ *  @see Simulation
+ */
+final class Stimulus {
+	/** the most changes scheduled at once */
+	static final int WINDOW = 4096;
+
+	/** the size of the buffer the file is read through */
+	private static final int BUFFER = 1 << 16;
+
+	private final File file;
+	private final InputStream in;
+	private final Netlist net;
+	private final Simulation sim;
+
+	/** the input gates, by name */
+	private final HashMap <String, Integer> inputs
+		= new HashMap <String, Integer> ();
+
+	// the text read but not yet scanned, in buf up to limit, where
+	// lx scans the whole lines and any partial line follows them
+	private byte[] buf = new byte[BUFFER];
+	private int limit = 0;
+	private NetlistLexer lx;
+	private boolean eof = false;
+
+	// the next change, read but not yet scheduled
+	private boolean held = false;
+	private long heldTime;
+	private int heldGate;
+	private int heldValue;
+
+	/** the time of the last change read, in ticks */
+	private long last = 0;
+
+	/** the number of changes scheduled so far */
+	static long changes = 0;
+
+	/** the number of windows read so far */
+	static long windows = 0;
+
+	/** Open a stimulus file for a circuit.
+	 *  @param s	the simulation of the circuit.
+	 *  @param f	the file.
+	 *  @param n	the circuit.
+	 *  @throws IOException	if the file cannot be opened.
+	 */
+	private Stimulus( Simulation s, File f, Netlist n ) throws IOException {
+		file = f;
+		in = new FileInputStream( f );
+		net = n;
+		sim = s;
+		for (int g = 0; g < n.gateCount; g++) {
+			if (n.type[g] == Netlist.INPUT) inputs.put( n.name( g ), g );
+		}
+		lx = new NetlistLexer( buf, 0, 0, 1 );
+	}
+
+	/** Start driving the input gates of the circuit being simulated;
+	 *  call this after Simulation.start.
+	 *  @param sim	the simulation.
+	 *  @param f	the stimulus file.
+	 *  @param n	the circuit.
+	 *  @throws IOException	if the file cannot be read.
+	 */
+	static void start(
+		Simulation sim, File f, Netlist n
+	) throws IOException {
+		final Stimulus s = new Stimulus( sim, f, n );
+		s.advance();
+		s.window();
+	}
+
+	/** Event that schedules the next window of changes */
+	private final class Refill extends Simulation.Event {
+		Refill( long t ) {
+			super( t );
+		}
+
+		/** Every event must provide a trigger method */
+		public void trigger() {
+			window();
+		}
+	}
+
+	/** Schedule the next window of changes, and a refill at the time of
+	 *  the change after them, if there is one.
+	 */
+	private void window() {
+		windows = windows + 1;
+		for (int k = 0; held && (k < WINDOW); k++) {
+			final byte[] output = sim.output;
+			if (heldValue != output[heldGate]) {
+				sim.schedule(
+					heldTime + net.delay[heldGate],
+					Simulation.GATE_OUTPUT, heldGate,
+					output[heldGate], heldValue
+				);
+				output[heldGate] = (byte)heldValue;
+				changes = changes + 1;
+			}
+			advance();
+		}
+		if (held) sim.schedule( new Refill( heldTime ) );
+	}
+
+	/** Read text into the buffer, keeping what has not been scanned,
+	 *  and set up lx to scan the whole lines in it, or everything left
+	 *  once the end of the file has been read.
+	 */
+	private void fill() {
+		final int from = lx.position();
+		final int line = lx.line;
+		limit = limit - from;
+		System.arraycopy( buf, from, buf, 0, limit );
+		if (limit == buf.length) { // a very long line
+			buf = java.util.Arrays.copyOf( buf, 2 * limit );
+		}
+		while (!eof && (limit < buf.length)) {
+			final int got;
+			try {
+				got = in.read( buf, limit, buf.length - limit );
+			} catch (IOException e) {
+				Errors.fatal( "Could not read '" + file + "'" );
+				return;
+			}
+			if (got < 0) {
+				eof = true;
+			} else {
+				limit = limit + got;
+			}
+		}
+
+		// scan up to the last line end, unless at the end
+		int cut = limit;
+		if (!eof) {
+			while ((cut > 0) && (buf[cut - 1] != '\n')) cut--;
+		}
+		lx = new NetlistLexer( buf, 0, cut, line );
+	}
+
+	/** Read the next change into held, skipping bad lines. */
+	private void advance() {
+		held = false;
+		while (!held) {
+			if (!lx.atEnd()) {
+				change();
+			} else if (eof && (lx.position() == limit)) {
+				return;
+			} else {
+				fill();
+			}
+		}
+	}
+
+	/** Scan one line, setting held if it is a good change. */
+	private void change() {
+		final int line = lx.line;
+		final double t = lx.nextDouble( false );
+		if (t != t) { // blank, comment or junk
+			final String junk = lx.lineEnd();
+			if (junk != null) Errors.warn(
+				line, "Stimulus '" + junk + "' has no time."
+			);
+			return;
+		}
+		final String name = (lx.nextPath() >= 0) ? lx.name() : "";
+		final String value = lx.nextDigits();
+		final String text = "Stimulus " + t + " '" + name + "' " + value;
+		final String junk = lx.lineEnd();
+
+		final Integer g = inputs.get( name );
+		final long ticks = net.ticks( t );
+		if (g == null) {
+			Errors.warn( line, text + " -- is not an input gate." );
+		} else if (value.length() != 1) {
+			Errors.warn( line, text + " -- needs one value, 0, x or 1." );
+		} else if (ticks < last) {
+			Errors.warn(
+				line, text + " -- is earlier than the line before."
+			);
+		} else {
+			if (junk != null) Errors.warn(
+				line, text + " followed unexpected by '" + junk + "'"
+			);
+			if (!net.exact( t )) Errors.warn(
+				line, text + " -- is not a whole number of ticks, using "
+				+ ((double)ticks / net.timebase)
+			);
+			held = true;
+			heldTime = ticks;
+			heldGate = g;
+			heldValue = "0x1".indexOf( value.charAt( 0 ) );
+			last = ticks;
+		}
+	}
+}
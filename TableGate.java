@@ -0,0 +1,109 @@
+import java.util.Scanner;
+
+/** the table gate, computing any ternary function given by a truth table.
+ *
+ *  A table gate with n inputs is declared with its truth table, a string
+ *  of 3 to the n digits 0, x and 1, one for each combination of input
+ *  values, counting in base 3 with the first input as the most
+ *  significant digit, for example the consensus of two inputs:
+ *  <pre>
+ *  gate C table 2 0xxxxxxx1 1.0
+ *  </pre>
+ *  Inputs are numbered in the order in which the wires into the gate
+ *  are defined.
+ *
+ *  @author Ryan Boehm
+ *  @see Gate
+ */
+public class TableGate extends Gate {
+	/** the most inputs a table gate may have */
+	static final int MAX_INPUTS = 10;
+
+	/** the truth table as written, or null if it was missing */
+	String digits = null;
+
+	/** initializer for a table gate scanned by other means
+	 *  @param myName the value to be put in the name field
+	 */
+	TableGate( String myName ) {
+		super( myName );
+		type = Netlist.TABLE;
+	}
+
+	/** initializer scans and processes one table gate
+	 *  @param sc Scanner from which gate description is read
+	 *  @param myName the value to be put in the name field
+	 */
+	TableGate( Scanner sc, String myName ) {
+		// the text "gate myName table" has already been scanned
+		this( myName );
+
+		// get inputs
+		if (sc.hasNextInt()) {
+			inputs = sc.nextInt();
+		} else {
+			Errors.warn(
+				this.myString() +
+				" table -- has no input count"
+			);
+		}
+		final String problem = setTable( ScanSupport.nextDigits( sc ) );
+		if (problem != null) Errors.warn( this.myString() + problem );
+
+		this.finishGate( sc );
+	}
+
+	/** check and set the truth table; call this once inputs is set
+	 *  @param d the digits of the table, or an empty string if none.
+	 *  @return null, or what is wrong, to follow the gate in a warning.
+	 */
+	String setTable( String d ) {
+		if ((inputs < 1) || (inputs > MAX_INPUTS)) {
+			return(
+				" table " + inputs +
+				" -- must have from 1 to " + MAX_INPUTS + " inputs"
+			);
+		}
+		if (d.length() != size( inputs )) {
+			return(
+				" table " + inputs + " -- needs " + size( inputs ) +
+				" digits, not " + d.length()
+			);
+		}
+		digits = d;
+		return null;
+	}
+
+	/** the number of entries in the truth table of a gate
+	 *  @param n the number of inputs.
+	 *  @return 3 to the n.
+	 */
+	static int size( int n ) {
+		int s = 1;
+		for (int i = 0; i < n; i++) s = s * 3;
+		return s;
+	}
+
+        /** get a representation for this Gate in the form used for input
+         *  @return the representation as a string
+         */
+	public String toString() {
+		return(
+			this.myString() + " table " + inputs + " " +
+			(digits == null ? "" : digits + " ") + delay
+		);
+	}
+
+	// ***** Logic Simulation for TableGate *****
+
+	/** Build the lookup table of a gate from its digits.
+	 *  @return the output for each packed input vector, see Netlist.
+	 */
+	byte[] lookupTable() {
+		final byte[] t = new byte[digits.length()];
+		for (int i = 0; i < t.length; i++) {
+			t[i] = (byte)"0x1".indexOf( digits.charAt( i ) );
+		}
+		return t;
+	}
+}
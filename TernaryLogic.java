@@ -1,6 +1,6 @@
 import java.util.LinkedList;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Scanner;
 
 /** TernaryLogic -- The main class of a ternary logic simulator.
@@ -11,7 +11,48 @@ import java.util.Scanner;
  *
  *  It runs from the command line, with three command line arguments,
  *  the input file name, the interval between successive outputs, and the
- *  total duration of the simulation.
+ *  total duration of the simulation.  These may be preceded by options:
+ *  <dl>
+ *  <dt>-fused<dd>deliver gate outputs straight to the gates they feed.
+ *  <dt>-stats<dd>report performance statistics on the standard error.
+ *  <dt>-mapped<dd>read the input file by mapping it into memory;
+ *  this is much faster, and warnings give line numbers.
+ *  <dt>-parallel<dd>like -mapped, but read using all processors.
+ *  <dt>-threads N<dd>simulate using N threads, each simulating a part
+ *  of the circuit.
+ *  <dt>-timebase N<dd>count time in units of 1/N; by default, the
+ *  smallest power of ten that makes every delay and the print interval
+ *  a whole number of ticks.
+ *  <dt>-vcd FILE<dd>write the output changes to FILE as a value change
+ *  dump, instead of printing the outputs at intervals.
+ *  <dt>-probe PATTERN<dd>dump only the gates with names matching
+ *  PATTERN, where * matches anything; this may be repeated.
+ *  <dt>-async block|drop<dd>print on a separate thread; when it falls
+ *  behind, the simulation either waits for it or drops rows.
+ *  <dt>-lanes FILE<dd>simulate up to 64 variants of the circuit at once,
+ *  with the initial values given in FILE, and print each of them.
+ *  <dt>-levelize<dd>simulate only the feedback loops event by event,
+ *  working out the logic they feed just when printing.
+ *  <dt>-inertial<dd>give gates inertial delay, so that pulses shorter
+ *  than the delay of a gate do not get through it.
+ *  <dt>-delta<dd>evaluate each gate once per time step, after all
+ *  its inputs that change then have changed.
+ *  <dt>-cache<dd>save the checked circuit in FILE.tlc, and on later
+ *  runs with the same text in FILE, read that instead.
+ *  <dt>-stimulus FILE<dd>drive the input gates with the changes
+ *  listed in FILE, which is read a window at a time.
+ *  <dt>-settle<dd>stop simulating once the circuit has gone still or
+ *  settled into a cycle, and print the rows from the cycle up to shortly
+ *  before the end, which is simulated as usual.
+ *  <dt>-prune<dd>fold gates with constant outputs before simulating;
+ *  with -probe, also leave out the gates that the gates probed do not
+ *  depend on, and print only the gates probed.
+ *  <dt>-calendar<dd>queue events in a calendar queue instead of a
+ *  heap; the calendar is faster when the delays are few and similar,
+ *  but changes due at the time of a row may print a row later or sooner.
+ *  <dt>-compile<dd>generate Java code specialized to the circuit and
+ *  simulate with that, as -fused would; see CircuitCompiler.
+ *  </dl>
  *
  *  @author Ryan Boehm
  *
@@ -20,6 +61,7 @@ import java.util.Scanner;
  *  @see Errors
  *  @see Simulation
  *  @see ScanSupport
+ *  @see Module
  *  @see #main
  */
 public class TernaryLogic {
@@ -29,17 +71,209 @@ public class TernaryLogic {
 	static final LinkedList <Gate> gates
 		= new LinkedList <Gate> ();
 
+	// the same, frozen for simulation by compileNetwork
+	static Netlist netlist;
+
+	// the gates indexed by name, kept up to date as gates are read
+	static final NameIndex gateIndex = new NameIndex();
+
+	// the top level of the circuit, with its instances of modules
+	static final Module.Scope top
+		= new Module.Scope( null, gates, wires, gateIndex );
+
+	// where gates, wires and instances go as they are read, either
+	// the top level or the body of a module
+	static Module.Scope scope = top;
+
+	// the scopes that the current one is nested in, innermost first;
+	// modules should not be nested, but if they are, each end goes
+	// back to the scope around it
+	static final java.util.ArrayDeque <Module.Scope> outer
+		= new java.util.ArrayDeque <Module.Scope> ();
+
+	// the modules defined so far, by name
+	static final java.util.HashMap <String, Module> modules
+		= new java.util.HashMap <String, Module> ();
+
 	/** utility method to look up an gate by name
-	 *  @param s is the name of the gate, a string
+	 *  @param s is the name of the gate, a string, or the name of an
+	 *  instance, a dot and the name of a gate in its module
 	 *  @return is the Gate object with that name
 	 */
 	public static Gate findGate( String s ) {
-		for ( Gate g: gates ) {
-			if (g.name.equals( s )) return g;
+		return scope.find( s );
+	}
+
+	/** When set, report performance statistics on System.err */
+	static boolean stats = false;
+
+	// the modes of the simulation, see Simulation
+	static boolean fused = false;
+	static boolean inertial = false;
+	static boolean delta = false;
+
+	/** the simulation, once the circuit has been compiled */
+	static Simulation simulation;
+
+	/** When set, read input with NetlistLoader instead of a Scanner */
+	static boolean mapped = false;
+
+	/** When set, NetlistLoader reads in parallel */
+	static boolean parallel = false;
+
+	/** If more than one, the number of threads that simulate */
+	static int threads = 1;
+
+	/** ticks per unit of time, or 0 to pick one to suit the circuit */
+	static long timebase = 0;
+
+	/** if not null, the file to write a value change dump to */
+	static File vcd = null;
+
+	/** patterns naming the gates to dump, or empty to dump all */
+	static final java.util.ArrayList <String> probes
+		= new java.util.ArrayList <String> ();
+
+	/** When set, print output on a thread of its own */
+	static boolean async = false;
+
+	/** When set, the printer drops rows it cannot keep up with */
+	static boolean drop = false;
+
+	/** the printer used when async is set */
+	private static AsyncPrinter printer = null;
+
+	/** if not null, the initial values of each lane, see BitSimulation */
+	static File lanes = null;
+
+	/** When set, work out feed-forward logic only when printing */
+	static boolean levelize = false;
+
+	/** When set, queue events in a calendar instead of a heap */
+	static boolean calendar = false;
+
+	/** When set, use and keep up a NetlistCache of the input file */
+	static boolean cache = false;
+
+	/** if not null, the file driving the input gates, see Stimulus */
+	static File stimulus = null;
+
+	/** When set, end early once the circuit settles, see Settler */
+	static boolean settle = false;
+
+	/** the event that ends the simulation */
+	private static ExitEvent exit;
+
+	/** When set, prune the circuit before simulating, see Pruner */
+	static boolean prune = false;
+
+	/** When set, simulate with code generated for the circuit */
+	static boolean compile = false;
+
+	/** the number of gates printed, which come first in the netlist */
+	private static int printed;
+
+	// with cache set, the circuit file, the key of its text, and the
+	// circuit read from the cache, if it was up to date
+	private static File source;
+	private static byte[] sourceKey;
+	private static NetlistCache cached = null;
+
+	/** add a newly read gate to the system
+	 *  @param g the gate, which must not be a redefinition.
+	 */
+	static void addGate( Gate g ) {
+		scope.gates.add( g );
+		scope.index.add( g );
+	}
+
+	/** start reading the body of a module
+	 *  @param name	the name of the module, or an empty string if none.
+	 *  @return	null, or what is wrong, as a warning.
+	 */
+	static String beginModule( String name ) {
+		final String around = scope.name;
+		outer.push( scope );
+		scope = new Module.Scope(
+			name, new java.util.ArrayList <Gate> (),
+			new java.util.ArrayList <Wire> (), new NameIndex()
+		);
+		if (around != null) {
+			return "Module '" + name + "' inside module '" + around + "'.";
+		} else if ("".equals( name )) {
+			return "module has no name";
+		} else if (modules.containsKey( name )) {
+			return "Module '" + name + "' redefined.";
 		}
 		return null;
 	}
 
+	/** finish reading the body of a module and define it, unless there
+	 *  was something wrong with its name; gates in it with too many
+	 *  inputs are reported as checkNetwork would
+	 *  @return	null, or what is wrong, as a warning.
+	 */
+	static String endModule() {
+		final Module.Scope s = scope;
+		if (s == top) return "end -- not in a module";
+		scope = outer.pop();
+		final Module m = Module.flatten( s, true );
+		if (!"".equals( s.name ) && !modules.containsKey( s.name )) {
+			modules.put( s.name, m );
+		}
+
+		// gates that are not fully wired may still be wired from
+		// outside each instance, see checkNetwork, but those with too
+		// many inputs are wrong whatever is outside
+		for (int g = 0; g < m.size(); g++) {
+			if (m.incount[g] > m.inputs[g]) Errors.warn(
+				"Module '" + s.name + "' gate " + m.gateName[g] +
+				" -- has too many inputs."
+			);
+		}
+		return null;
+	}
+
+	/** add an instance of a module where gates are being read
+	 *  @param name	the name of the instance, or an empty string if none.
+	 *  @param module	the name of the module, or an empty string.
+	 *  @return	null, or what is wrong, as a warning.
+	 */
+	static String addInstance( String name, String module ) {
+		final Module m = modules.get( module );
+		if ("".equals( name )) {
+			return "instance has no name";
+		} else if (scope.findInstance( name ) != null) {
+			return "Instance '" + name + "' redefined.";
+		} else if (m == null) {
+			return(
+				"Instance '" + name + "' '" + module +
+				"' module undefined."
+			);
+		}
+		scope.addInstance( name, m );
+		return null;
+	}
+
+	/** finish reading, after the last line
+	 *  @return	null, or what is wrong, as a warning.
+	 */
+	static String endOfInput() {
+		if (scope == top) return null;
+		final String name = scope.name;
+		scope = top;
+		outer.clear();
+		return "Module '" + name + "' has no end.";
+	}
+
+	/** forget the circuit, so that another can be read */
+	static void clearNetwork() {
+		top.clear();
+		scope = top;
+		outer.clear();
+		modules.clear();
+	}
+
 	/** read a ternary logic system.
 	 *  @param sc the scanner from which the system is read.
 	 */
@@ -49,10 +283,30 @@ public class TernaryLogic {
 			String command = ScanSupport.nextName( sc );
 			if ("gate".equals( command )) {
 				Gate g = Gate.newGate( sc );
-				if (g != null) gates.add( g );
+				if (g != null) addGate( g );
 
 			} else if ("wire".equals( command )) {
-				wires.add( new Wire( sc ) );
+				scope.wires.add( new Wire( sc ) );
+
+			} else if ("module".equals( command )) {
+				final String name = ScanSupport.nextName( sc );
+				final String problem = beginModule( name );
+				if (problem != null) Errors.warn( problem );
+				ScanSupport.lineEnd( sc, () -> "module " + name );
+
+			} else if ("instance".equals( command )) {
+				final String name = ScanSupport.nextName( sc );
+				final String module = ScanSupport.nextName( sc );
+				final String problem = addInstance( name, module );
+				if (problem != null) Errors.warn( problem );
+				ScanSupport.lineEnd(
+					sc, () -> "instance " + name + " " + module
+				);
+
+			} else if ("end".equals( command )) {
+				final String problem = endModule();
+				if (problem != null) Errors.warn( problem );
+				ScanSupport.lineEnd( sc, () -> "end" );
 
 			} else if ("".equals( command )) { // blank or comment
 				// line holding -- ends up here!
@@ -61,11 +315,13 @@ public class TernaryLogic {
 			} else {
 				Errors.warn(
 					"Command '" + command +
-					"' is not gate or wire"
+					"' is not gate, wire, module, instance or end"
 				);
 				sc.nextLine(); // skip the rest of the error
 			}
 		}
+		final String problem = endOfInput();
+		if (problem != null) Errors.warn( problem );
 	}
 
         /** Check the sanity of the network.
@@ -75,54 +331,245 @@ public class TernaryLogic {
                 for ( Gate g: gates ) {
                         g.check();
                 }
+		for ( Module.Instance i: top.instances ) {
+			i.check();
+		}
                 // we could also go through the wires,
 		// but there's nothing to check there.
         }
 
+	/** Freeze the checked network for simulation.
+	 *  The gate and wire objects are not needed after this.
+	 *  @param times	times that should be exact if the timebase is
+	 *  picked to suit the circuit.
+	 *  @see Netlist#compile
+	 */
+	public static void compileNetwork( float... times ) {
+		if (cached != null) {
+			if (timebase == 0) {
+				timebase = Netlist.timebase( cached.timebase, times );
+			}
+			netlist = cached.compile( timebase );
+			cached = null;
+			return;
+		}
+		if (!top.instances.isEmpty()) {
+			final Module flat = Module.flatten( top, false );
+			if (timebase == 0) {
+				timebase = Netlist.timebase( flat.timebase(), times );
+			}
+			netlist = Netlist.compile(
+				flat, top.instances.toArray( new Module.Instance[0] ),
+				timebase
+			);
+			if (cache) {
+				NetlistCache.write( source, sourceKey, netlist, flat );
+			}
+			gates.clear();
+			wires.clear();
+			return;
+		}
+		if (timebase == 0) {
+			timebase = Netlist.timebase( gates, wires, times );
+		}
+		netlist = Netlist.compile( gates, wires, timebase );
+		if (cache) {
+			NetlistCache.write( source, sourceKey, netlist, gates, wires );
+		}
+		gates.clear();
+		wires.clear();
+	}
+
 	/** write out a ternary logic system
 	 */
 	public static void writeTernary() {
 		for ( Gate g: gates ) {
 			System.out.println( g.toString() );
 		}
+		for ( Module.Instance i: top.instances ) {
+			System.out.println( i.toString() );
+		}
 		for ( Wire w: wires ) {
 			System.out.println( w.toString() );
 		}
 	}
 
 	/** output headline for logic output
-	 *  @param i	the interval between successive outputs
+	 *  @param i	the interval between successive outputs, in ticks
 	 */
-	public static void initPrint( float i ) {
-		Simulation.schedule( new PrintEvent( 0.0f, i ) );
+	public static void initPrint( long i ) {
+		simulation.schedule( new PrintEvent( 0, i ) );
 
-		for( Gate g: gates ) {
-			System.out.print( " " + g.name );
+		for (int g = 0; g < printed; g++) {
+			System.out.print( " " + netlist.name( g ) );
 		}
 		System.out.println();
+
+		if (async) {
+			System.out.flush(); // the printer writes around System.out
+			printer = new AsyncPrinter( printed, drop, printValues );
+			printer.start();
+		} else {
+			previous = new byte[printed];
+			java.util.Arrays.fill( previous, (byte)1 ); // unknown
+		}
+	}
+
+	/** read the initial values for a bit parallel simulation
+	 *  @return	initial[lane][gate], the initial values.
+	 */
+	private static byte[][] readLanes() {
+		try {
+			return BitSimulation.readLanes( lanes, netlist );
+		} catch (IOException e) {
+			Errors.fatal( "Could not read '" + lanes + "'" );
+			return null;
+		}
+	}
+
+	/** output headline for bit parallel logic output
+	 *  @param i	the interval between successive outputs, in ticks
+	 */
+	public static void initLanePrint( long i ) {
+		simulation.schedule( new LanePrintEvent( 0, i ) );
+
+		System.out.print( "lane" );
+		for (int g = 0; g < netlist.gateCount; g++) {
+			System.out.print( " " + netlist.name( g ) );
+		}
+		System.out.println();
+
+		previousLanes = new byte[BitSimulation.lanes][netlist.gateCount];
+		for ( byte[] p: previousLanes ) {
+			java.util.Arrays.fill( p, (byte)1 ); // unknown
+		}
 	}
 
+	/** The textual print value for a gate as required by MP5.
+	 *  The first array index is the old value,
+	 *  the second array index is the new value.
+	 */
+	static final String[][] printValues = {
+		{ "|    ", "|_   ", "|___ " },
+		{ " _|  ", "  |  ", "  |_ " },
+		{ " ___|", "   _|", "    |" }
+	};
+
+	/** each gate's previously printed output */
+	private static byte[] previous;
+
 	/** Output print event */
 	private static final class PrintEvent extends Simulation.Event {
-		private final float printInterval;
+		private final long printInterval;
 
 		/** Construct a print event
                  *  @param time	the time at which to print.
                  *  @param i 	the interval between print events.
                  */
-                public PrintEvent( float time, float i ) {
+                public PrintEvent( long time, long i ) {
                         super( time );
                         printInterval = i;
                 }
 		
 		/** Every event must provide a trigger method */
 		public void trigger() {
-			for( Gate g: gates ) {
-				System.out.print( " " + g.printValue() );
+			// show each gate's output since the last print
+			final byte[] current = simulation.current;
+			if (Levelizer.active) Levelizer.sample( time, current );
+			if (printer != null) {
+				printer.publish( current );
+			} else {
+				final StringBuilder row = new StringBuilder();
+				for (int g = 0; g < previous.length; g++) {
+					row.append( ' ' ).append(
+						printValues[previous[g]][current[g]]
+					);
+				}
+				final String text = row.toString();
+				if (settle) {
+					final java.util.List <String> cycle = Settler.check(
+						simulation, time, previous, text
+					);
+					if (cycle != null) skip( cycle );
+				}
+				System.arraycopy( current, 0, previous, 0, previous.length );
+				System.out.println( text );
 			}
-			System.out.println();
 
-			Simulation.schedule( new PrintEvent(
+			simulation.schedule( new PrintEvent(
+				time + printInterval,
+				printInterval
+			) );
+		}
+
+		/** Print the rows of a cycle over and over without simulating,
+		 *  starting now, for as many whole cycles as leave every pending
+		 *  change due before the end, and move this event and the pending
+		 *  changes on to the time after the last of them.  From there the
+		 *  simulation goes on as it would have, so that the last rows,
+		 *  and whether a row is printed at the very end, come out just
+		 *  as they would have.
+		 *  @param cycle	the rows, starting with the one for now.
+		 */
+		private void skip( java.util.List <String> cycle ) {
+			final long end = exit.time;
+			final long period = Settler.period * printInterval;
+			final long cycles = Math.max(
+				0, (end - 1 - time - Settler.horizon) / period
+			);
+			final long prints = cycles * Settler.period;
+			final double unit = netlist.timebase;
+			System.err.println( Settler.still
+				? "Settled at time " + time / unit + "; still from then"
+				: "Settled at time " + time / unit + " into a cycle of " +
+				  Settler.period + " prints, " +
+				  Settler.period * printInterval / unit + " units"
+			);
+			if (stats) System.err.println(
+				"Printed " + prints + " rows without simulating"
+			);
+			for (long k = 0; k < prints; k++) {
+				System.out.println( cycle.get( (int)(k % cycle.size()) ) );
+			}
+			simulation.eventSet.delay( cycles * period, Simulation.OBJECT );
+			time = time + cycles * period;
+		}
+	}
+
+	/** each gate's previously printed output in each lane */
+	private static byte[][] previousLanes;
+
+	/** Output print event for bit parallel simulation;
+	 *  this prints a row for each lane, starting with the lane number.
+	 */
+	private static final class LanePrintEvent extends Simulation.Event {
+		private final long printInterval;
+
+		/** Construct a print event
+		 *  @param time	the time at which to print.
+		 *  @param i 	the interval between print events.
+		 */
+		LanePrintEvent( long time, long i ) {
+			super( time );
+			printInterval = i;
+		}
+
+		/** Every event must provide a trigger method */
+		public void trigger() {
+			final StringBuilder row = new StringBuilder();
+			for (int k = 0; k < previousLanes.length; k++) {
+				final byte[] previous = previousLanes[k];
+				row.setLength( 0 );
+				row.append( String.format( "%4d", k ) );
+				for (int g = 0; g < previous.length; g++) {
+					final int v = BitSimulation.current( g, k );
+					row.append( ' ' ).append( printValues[previous[g]][v] );
+					previous[g] = (byte)v;
+				}
+				System.out.println( row );
+			}
+
+			simulation.schedule( new LanePrintEvent(
 				time + printInterval,
 				printInterval
 			) );
@@ -131,11 +578,30 @@ public class TernaryLogic {
 
 	/** Terminate Simulation Event */
 	private static class ExitEvent extends Simulation.Event {
-		public ExitEvent( float t ) {
+		public ExitEvent( long t ) {
 			super( t );
 		}
 		/** Every event must provide a trigger method */
 		public void trigger() {
+			VcdWriter.close( time );
+			final Simulation s = simulation;
+			if (stats && inertial) System.err.println(
+				"Suppressed " + s.suppressed + " output changes"
+			);
+			if (stats && delta) System.err.println(
+				"Evaluated gates " + s.evaluations + " times for " +
+				s.inputChanges + " input changes"
+			);
+			if (stats && (stimulus != null)) System.err.println(
+				"Scheduled " + Stimulus.changes + " stimulus changes in " +
+				Stimulus.windows + " windows"
+			);
+			if (printer != null) {
+				printer.finish();
+				if (stats) System.err.println(
+					"Printed " + printer.statistics()
+				);
+			}
 			System.exit( 0 );
 		}
 	}
@@ -144,37 +610,285 @@ public class TernaryLogic {
 	 *  @param args the command line arguments must hold one file name
 	 */
 	public static void main( String[] args ) {
+		// options come first, each starts with a dash
+		int a = 0;
+		while ((a < args.length) && args[a].startsWith( "-" )) {
+			if ("-fused".equals( args[a] )) {
+				fused = true;
+			} else if ("-stats".equals( args[a] )) {
+				stats = true;
+			} else if ("-mapped".equals( args[a] )) {
+				mapped = true;
+			} else if ("-parallel".equals( args[a] )) {
+				mapped = true;
+				parallel = true;
+			} else if ("-threads".equals( args[a] )) {
+				a = a + 1;
+				try {
+					threads = Integer.parseInt( args[a] );
+				} catch (NumberFormatException
+				      | ArrayIndexOutOfBoundsException e) {
+					Errors.fatal( "-threads needs a number" );
+				}
+				if (threads < 1) {
+					Errors.fatal( "-threads needs a positive number" );
+				}
+			} else if ("-timebase".equals( args[a] )) {
+				a = a + 1;
+				try {
+					timebase = Long.parseLong( args[a] );
+				} catch (NumberFormatException
+				      | ArrayIndexOutOfBoundsException e) {
+					Errors.fatal( "-timebase needs a number" );
+				}
+				if (timebase < 1) {
+					Errors.fatal( "-timebase needs a positive number" );
+				}
+			} else if ("-vcd".equals( args[a] )) {
+				a = a + 1;
+				if (a == args.length) Errors.fatal( "-vcd needs a file" );
+				vcd = new File( args[a] );
+			} else if ("-probe".equals( args[a] )) {
+				a = a + 1;
+				if (a == args.length) {
+					Errors.fatal( "-probe needs a pattern" );
+				}
+				probes.add( args[a] );
+			} else if ("-async".equals( args[a] )) {
+				a = a + 1;
+				if ((a < args.length) && "drop".equals( args[a] )) {
+					drop = true;
+				} else if ((a == args.length)
+				||         !"block".equals( args[a] )) {
+					Errors.fatal( "-async needs block or drop" );
+				}
+				async = true;
+			} else if ("-lanes".equals( args[a] )) {
+				a = a + 1;
+				if (a == args.length) Errors.fatal( "-lanes needs a file" );
+				lanes = new File( args[a] );
+			} else if ("-stimulus".equals( args[a] )) {
+				a = a + 1;
+				if (a == args.length) Errors.fatal( "-stimulus needs a file" );
+				stimulus = new File( args[a] );
+			} else if ("-levelize".equals( args[a] )) {
+				levelize = true;
+			} else if ("-inertial".equals( args[a] )) {
+				inertial = true;
+			} else if ("-delta".equals( args[a] )) {
+				delta = true;
+			} else if ("-cache".equals( args[a] )) {
+				cache = true;
+			} else if ("-settle".equals( args[a] )) {
+				settle = true;
+			} else if ("-prune".equals( args[a] )) {
+				prune = true;
+			} else if ("-calendar".equals( args[a] )) {
+				calendar = true;
+			} else if ("-compile".equals( args[a] )) {
+				compile = true;
+			} else {
+				Errors.fatal( "Unknown option '" + args[a] + "'" );
+			}
+			a = a + 1;
+		}
+		if (!probes.isEmpty() && (vcd == null) && !prune) {
+			Errors.fatal( "-probe needs -vcd or -prune" );
+		}
+		if ((vcd != null) && (threads > 1)) {
+			Errors.fatal( "-vcd cannot be used with -threads" );
+		}
+		if (levelize && ((threads > 1) || (vcd != null) || (lanes != null))) {
+			Errors.fatal(
+				"-levelize cannot be used with -threads, -vcd or -lanes"
+			);
+		}
+		if ((stimulus != null) && ((threads > 1) || (lanes != null))) {
+			Errors.fatal( "-stimulus cannot be used with -threads or -lanes" );
+		}
+		if ((lanes != null) && ((threads > 1) || (vcd != null) || async)) {
+			Errors.fatal(
+				"-lanes cannot be used with -threads, -vcd or -async"
+			);
+		}
+		if (settle && (
+			(threads > 1) || (lanes != null) || levelize || (vcd != null) ||
+			async
+		)) {
+			Errors.fatal(
+				"-settle cannot be used with -threads, -lanes, -levelize, " +
+				"-vcd or -async"
+			);
+		}
+		if (prune && ((lanes != null) || inertial)) {
+			Errors.fatal( "-prune cannot be used with -lanes or -inertial" );
+		}
+		if (delta && (threads > 1)) {
+			Errors.fatal( "-delta cannot be used with -threads" );
+		}
+		if (inertial && ((threads > 1) || levelize || (lanes != null))) {
+			Errors.fatal(
+				"-inertial cannot be used with -threads, -levelize or -lanes"
+			);
+		}
+
+		if (compile && (
+			(threads > 1) || (lanes != null) || levelize || (vcd != null) ||
+			inertial || delta || (stimulus != null) || settle
+		)) {
+			Errors.fatal(
+				"-compile cannot be used with -threads, -lanes, -levelize, " +
+				"-vcd, -inertial, -delta, -stimulus or -settle"
+			);
+		}
+
 		// verify that the argument exists.
-		if (args.length < 1) {
+		if (args.length - a < 1) {
 			Errors.fatal( "Missing file name on command line" );
-		} else if (args.length < 2) {
+		} else if (args.length - a < 2) {
 			Errors.fatal( "Missing interval on command line" );
-		} else if (args.length < 3) {
+		} else if (args.length - a < 3) {
 			Errors.fatal( "Missing time limit on command line" );
-		} else if (args.length > 3) {
+		} else if (args.length - a > 3) {
 			Errors.fatal( "Unexpected command line args" );
 
 		} else try {
-			initializeTernary( new Scanner( new File( args[0] ) ) );
-			checkNetwork();
+			final long loadStart = System.nanoTime();
+			if (cache) {
+				source = new File( args[a] );
+				sourceKey = NetlistCache.key( source );
+				cached = NetlistCache.read( source, sourceKey );
+			}
+			if (cached != null) {
+				if (stats) System.err.println(
+					"Loaded " + cached.gateCount() + " gates and " +
+					cached.wireCount() + " wires from the cache in " +
+					(System.nanoTime() - loadStart) / 1000000 + " ms"
+				);
+			} else if (parallel) {
+				NetlistLoader.loadParallel( new File( args[a] ) );
+			} else if (mapped) {
+				NetlistLoader.load( new File( args[a] ) );
+			} else {
+				initializeTernary( new Scanner( new File( args[a] ) ) );
+			}
+			if (cached == null) {
+				if (stats) System.err.println(
+					"Loaded " + gates.size() + " gates and " +
+					wires.size() + " wires" + (top.instances.isEmpty()
+						? "" : " and " + top.instances.size() + " instances"
+					) + " in " +
+					(System.nanoTime() - loadStart) / 1000000 + " ms; " +
+					gateIndex.statistics()
+				);
+				checkNetwork();
+			}
 			if (Errors.count() > 0) {
 				writeTernary();
 			} else try {
-				initPrint( Float.parseFloat( args[1] ) );
-				Simulation.schedule( new ExitEvent(
-					Float.parseFloat( args[2] )
-				) );
-				Simulation.run();
+				final float interval = Float.parseFloat( args[a + 1] );
+				final float limit = Float.parseFloat( args[a + 2] );
+				compileNetwork( interval, limit );
+				if (stats) System.err.println(
+					"Timebase " + netlist.timebase + " ticks per unit"
+				);
+				final long ticks = netlist.ticks( interval );
+				if (ticks <= 0) Errors.fatal(
+					"Print interval " + interval +
+					" is less than one tick; use -timebase"
+				);
+				printed = netlist.gateCount;
+				if (prune) {
+					final int gates = netlist.gateCount;
+					final int wires = netlist.wireCount;
+					netlist = Pruner.prune(
+						netlist, VcdWriter.select( netlist, probes ),
+						stimulus != null
+					);
+					printed = Pruner.observed;
+					System.err.println(
+						"Pruned " + Pruner.gatesRemoved + " of " + gates +
+						" gates and " + Pruner.wiresRemoved + " of " + wires +
+						" wires; " + Pruner.folded + " gates are constant"
+					);
+				}
+				if (calendar) {
+					final CalendarQueue q
+						= CalendarQueue.forCircuit( netlist );
+					if (stats) System.err.println( "Using a " + q );
+					simulation = new Simulation( q );
+				} else {
+					simulation = new Simulation();
+				}
+				simulation.fused = fused;
+				simulation.inertial = inertial;
+				simulation.delta = delta;
+				CircuitCompiler.Code code = null;
+				if (compile) {
+					final long compileStart = System.nanoTime();
+					code = CircuitCompiler.compile( netlist );
+					if (code == null) {
+						System.err.println(
+							"Could not compile the circuit; interpreting it"
+						);
+						simulation.fused = true;
+					} else if (stats) System.err.println(
+						"Compiled " + netlist.gateCount + " gates in " +
+						(System.nanoTime() - compileStart) / 1000000 + " ms"
+					);
+				}
+				if (code != null) {
+					CircuitCompiler.start( simulation, code );
+					initPrint( ticks );
+				} else if (lanes != null) {
+					BitSimulation.start(
+						simulation, netlist, readLanes()
+					);
+					initLanePrint( ticks );
+				} else {
+					simulation.start(
+						levelize ? Levelizer.analyze( netlist ) : netlist
+					);
+					if (stats && fused) System.err.println(
+						"Grouped " + simulation.net.wireCount +
+						" wires into " + simulation.net.groupDelay.length +
+						" fanout groups by delay"
+					);
+					if (vcd == null) {
+						initPrint( ticks );
+					} else {
+						VcdWriter.open(
+							vcd, netlist,
+							VcdWriter.select( netlist, probes )
+						);
+					}
+					if (stimulus != null) try {
+						Stimulus.start( simulation, stimulus, netlist );
+					} catch (IOException e) {
+						Errors.fatal( "Could not read '" + stimulus + "'" );
+					}
+				}
+				exit = new ExitEvent( netlist.ticks( limit ) );
+				simulation.schedule( exit );
+				if (lanes != null) {
+					BitSimulation.run();
+				} else if (code != null) {
+					code.run();
+				} else if (threads > 1) {
+					ParallelSimulation.run( simulation, threads );
+				} else {
+					simulation.run();
+				}
 			} catch (NumberFormatException e) {
 				// Bug: The error message is wrong for args[2]
 				Errors.fatal(
-					"'" + args[1] +
+					"'" + args[a + 1] +
 					"' is not an floating print interval"
 				);
 			}
 
-		} catch (FileNotFoundException e) {
-			Errors.fatal( "Could not read '" + args[0] + "'" );
+		} catch (IOException e) {
+			Errors.fatal( "Could not read '" + args[a] + "'" );
 		}
 	}
 }
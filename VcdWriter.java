@@ -0,0 +1,266 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Value change dump of a simulation.
+ *
+ *  Writes a VCD file, as read by standard waveform viewers, recording
+ *  each change of output of the probed gates as it happens, instead of
+ *  sampling every gate at every print interval.  False, unknown and true
+ *  are dumped as 0, x and 1.  One unit of simulated time is taken to be
+ *  a nanosecond, so the timescale of the dump follows the timebase.
+ *
+ *  @author Ryan Boehm
+ *  @see Simulation
+ *  @see TernaryLogic
+ */
+final class VcdWriter {
+	private VcdWriter() {} // no instances
+
+	/** the size of the output buffer */
+	private static final int BUFFER = 1 << 20;
+
+	/** the timescale for each power of ten timebase */
+	private static final String[] timescales = {
+		"1 ns", "100 ps", "10 ps", "1 ps", "100 fs", "10 fs", "1 fs"
+	};
+
+	/** VCD values, indexed by logic value */
+	private static final byte[] digit = { '0', 'x', '1' };
+
+	private static FileChannel channel;
+	private static ByteBuffer buffer;
+
+	/** the identifier code of each gate, or null if it is not probed */
+	private static byte[][] code;
+
+	/** the time of the last change written, or -1 */
+	private static long written = -1;
+
+	/** Turn a glob pattern into a regular expression;
+	 *  * matches any text and ? matches any one character.
+	 *  @param glob	the pattern.
+	 *  @return	the equivalent regular expression.
+	 */
+	private static Pattern globPattern( String glob ) {
+		final StringBuilder r = new StringBuilder();
+		int quoted = 0; // start of the text not yet added to r
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt( i );
+			if ((c == '*') || (c == '?')) {
+				if (i > quoted) r.append(
+					Pattern.quote( glob.substring( quoted, i ) )
+				);
+				r.append( (c == '*') ? ".*" : "." );
+				quoted = i + 1;
+			}
+		}
+		if (glob.length() > quoted) {
+			r.append( Pattern.quote( glob.substring( quoted ) ) );
+		}
+		return Pattern.compile( r.toString() );
+	}
+
+	/** Pick out the gates that match any of some patterns.
+	 *  @param n	the circuit.
+	 *  @param globs	the patterns; if there are none, all gates match.
+	 *  @return	for each gate, true if it matches.
+	 */
+	static boolean[] select( Netlist n, List <String> globs ) {
+		final boolean[] chosen = new boolean[n.gateCount];
+		if (globs.isEmpty()) {
+			java.util.Arrays.fill( chosen, true );
+			return chosen;
+		}
+		final Pattern[] p = new Pattern[globs.size()];
+		for (int i = 0; i < p.length; i++) {
+			p[i] = globPattern( globs.get( i ) );
+		}
+		for (int g = 0; g < n.gateCount; g++) {
+			for ( Pattern pi: p ) {
+				if (pi.matcher( n.name( g ) ).matches()) {
+					chosen[g] = true;
+					break;
+				}
+			}
+		}
+		return chosen;
+	}
+
+	/** Make the identifier code for the i'th probe, a short string
+	 *  of the printable characters from ! to ~.
+	 *  @param i	the number of the probe, counting from 0.
+	 *  @return	the code.
+	 */
+	private static byte[] identifier( int i ) {
+		final byte[] b = new byte[8];
+		int n = 0;
+		do {
+			b[n] = (byte)('!' + i % 94);
+			n = n + 1;
+			i = i / 94;
+		} while (i > 0);
+		return java.util.Arrays.copyOf( b, n );
+	}
+
+	/** Start a dump, writing the header and the initial values.
+	 *  @param f	the file to write.
+	 *  @param n	the circuit.
+	 *  @param probed	which gates to dump, see select.
+	 */
+	static void open( File f, Netlist n, boolean[] probed ) {
+		// a tick is a nanosecond divided by the timebase
+		int i = 0;
+		for (long b = 1; b != n.timebase; b = b * 10) {
+			i = i + 1;
+			if ((b > n.timebase) || (i == timescales.length)) {
+				Errors.fatal(
+					"-vcd needs a timebase that is a power of ten, " +
+					"at most 1000000"
+				);
+			}
+		}
+		final String timescale = timescales[i];
+
+		try {
+			channel = FileChannel.open(
+				f.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING
+			);
+		} catch (IOException e) {
+			Errors.fatal( "Could not write '" + f + "'" );
+		}
+		buffer = ByteBuffer.allocateDirect( BUFFER );
+
+		write( "$version TernaryLogic $end\n" );
+		write( "$timescale " + timescale + " $end\n" );
+		write( "$scope module circuit $end\n" );
+		code = new byte[n.gateCount][];
+		int probes = 0;
+		for (int g = 0; g < n.gateCount; g++) {
+			if (!probed[g]) continue;
+			code[g] = identifier( probes );
+			probes = probes + 1;
+			write( "$var wire 1 " );
+			write( code[g] );
+			write( " " + n.name( g ) + " $end\n" );
+		}
+		write( "$upscope $end\n" );
+		write( "$enddefinitions $end\n" );
+
+		// everything starts out unknown
+		write( "#0\n$dumpvars\n" );
+		for (int g = 0; g < n.gateCount; g++) {
+			if (code[g] == null) continue;
+			room( code[g].length + 2 );
+			buffer.put( digit[1] ).put( code[g] ).put( (byte)'\n' );
+		}
+		write( "$end\n" );
+		written = 0;
+	}
+
+	/** Is a dump being written?
+	 *  @return	true if open was called.
+	 */
+	static boolean isOpen() {
+		return channel != null;
+	}
+
+	/** Record a change of output; this ignores gates that are not probed.
+	 *  @param time	the time of the change, in ticks.
+	 *  @param g	the gate.
+	 *  @param v	the new value.
+	 */
+	static void change( long time, int g, int v ) {
+		final byte[] c = code[g];
+		if (c == null) return;
+		if (time != written) {
+			room( 21 );
+			buffer.put( (byte)'#' );
+			putLong( time );
+			buffer.put( (byte)'\n' );
+			written = time;
+		}
+		room( c.length + 2 );
+		buffer.put( digit[v] ).put( c ).put( (byte)'\n' );
+	}
+
+	/** Finish the dump.
+	 *  @param time	the end of the simulation, in ticks.
+	 */
+	static void close( long time ) {
+		if (channel == null) return;
+		if (time != written) write( "#" + time + "\n" );
+		try {
+			flush();
+			channel.close();
+		} catch (IOException e) {
+			Errors.fatal( "Could not write the value change dump" );
+		}
+		channel = null;
+	}
+
+	/** Append the decimal digits of a number to the buffer.
+	 *  @param v	the number, not negative.
+	 */
+	private static void putLong( long v ) {
+		final int start = buffer.position();
+		do {
+			buffer.put( (byte)('0' + v % 10) );
+			v = v / 10;
+		} while (v > 0);
+
+		// the digits went in backwards
+		for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+			final byte t = buffer.get( i );
+			buffer.put( i, buffer.get( j ) );
+			buffer.put( j, t );
+		}
+	}
+
+	/** Append some ASCII text to the buffer.
+	 *  @param s	the text.
+	 */
+	private static void write( String s ) {
+		write( s.getBytes( java.nio.charset.StandardCharsets.ISO_8859_1 ) );
+	}
+
+	/** Append some bytes to the buffer.
+	 *  @param b	the bytes.
+	 */
+	private static void write( byte[] b ) {
+		int i = 0;
+		while (i < b.length) {
+			room( 1 );
+			final int n = Math.min( b.length - i, buffer.remaining() );
+			buffer.put( b, i, n );
+			i = i + n;
+		}
+	}
+
+	/** Make sure there is room in the buffer, flushing it if not.
+	 *  @param n	the number of bytes needed, much less than BUFFER.
+	 */
+	private static void room( int n ) {
+		if (buffer.remaining() < n) try {
+			flush();
+		} catch (IOException e) {
+			Errors.fatal( "Could not write the value change dump" );
+		}
+	}
+
+	/** Write out the buffer.
+	 *  @throws IOException	if it cannot be written.
+	 */
+	private static void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write( buffer );
+		buffer.clear();
+	}
+}
@@ -9,9 +9,9 @@ import java.util.Scanner;
  *  @see TernaryLogic#findGate(String)
  */
 class Wire {
-	private final float delay;	// time delay of this wire
-	private final Gate destination;	// where wire goes, or null
-	private final Gate source;	// source of wire, or null
+	final float delay;	// time delay of this wire
+	final Gate destination;	// where wire goes, or null
+	final Gate source;	// source of wire, or null
 	// Wire name is the source-destination names
 
 	/** Initializer scans and processes one wire definition.
@@ -19,8 +19,8 @@ class Wire {
 	 */
 	public Wire( Scanner sc ) {
 		// textual names of source and dest
-		String srcName = ScanSupport.nextName( sc );
-		String dstName = ScanSupport.nextName( sc );
+		String srcName = ScanSupport.nextPath( sc );
+		String dstName = ScanSupport.nextPath( sc );
 		// if there are no next names on this line, these are ""
 		// therefore, the findGate calls below will fail
 
@@ -59,7 +59,27 @@ class Wire {
 		}
 		ScanSupport.lineEnd( sc, () -> this.toString() );
 
-		// Now, tell the gates that they've been wired together
+		connect();
+	}
+
+	/** Initializer for a wire scanned by other means;
+	 *  the caller is responsible for complaining about missing parts,
+	 *  and for calling <code>connect</code>.
+	 *  @param src	the source gate, or null.
+	 *  @param dst	the destination gate, or null.
+	 *  @param d	the delay.
+	 */
+	Wire( Gate src, Gate dst, float d ) {
+		source = src;
+		destination = dst;
+		delay = d;
+	}
+
+	/** Tell the gates that they've been wired together.
+	 *  This is not thread safe, so wires read in parallel are
+	 *  connected later, one at a time.
+	 */
+	void connect() {
 		if (destination != null) destination.addIncoming( this );
 		if (source != null) source.addOutgoing( this );
 	}
@@ -89,60 +109,4 @@ class Wire {
 			delay
 		);
 	}
-
-	// ***** Logic Simulation *****
-
-	/** simulation class for an input change to this wire */
-	public static final class InputChangeEvent extends Simulation.Event {
-		private final Wire w;   // the wire with an input that changes
-		private final int oldv; // the former value on w
-		private final int newv; // the new value on w
-
-		/** Construct an input change event
-		 *  @param time	the time at which the input changes.
-		 *  @param w	the wire where the input changes.
-		 *  @param ov	the previous logic value carried over w.
-		 *  @param nv	the new logic value carried over w.
-		 */
-		public InputChangeEvent( float time, Wire w, int ov, int nv) {
-			super( time );
-			this.w = w;
-			this.oldv = ov;
-			this.newv = nv;
-		}
-
-		/** Every event must provide a trigger method */
-		public void trigger() {
-			Simulation.schedule( new OutputChangeEvent(
-				time + w.delay, w, oldv, newv
-			) );
-		}
-	};
-
-	/** simulation class for an output change to this wire */
-	public static final class OutputChangeEvent extends Simulation.Event {
-		private final Wire w;   // the wire with an output that changes
-		private final int oldv; // the former value on w
-		private final int newv; // the new value on w
-
-		/** Construct an output change event
-		 *  @param time	the time at which the output changes.
-		 *  @param w	the wire where the output changes.
-		 *  @param ov	the previous logic value carried over w.
-		 *  @param nv	the new logic value carried over w.
-		 */
-		public OutputChangeEvent( float time, Wire w, int ov, int nv ) {
-			super( time );
-			this.w = w;
-			this.oldv = ov;
-			this.newv = nv;
-		}
-
-		/** Every event must provide a trigger method */
-		public void trigger() {
-			Simulation.schedule( new Gate.InputChangeEvent(
-				time, w.destination, oldv, newv
-			) );
-		}
-	}
 }
@@ -9,26 +9,79 @@ public class Errors {
 	private Errors(){}; // you may never instantiate this class
 
 	private static int count = 0; // warning count, really public read only
+
+	/** Where the errors of one thread go instead of
+	 *  <code>system.err</code>, see redirect.
+	 */
+	static final class Sink {
+		/** the text of the messages, one per line */
+		final StringBuilder messages = new StringBuilder();
+
+		/** the count of the non-fatal warnings */
+		int count = 0;
+	}
+
+	/** What fatal throws, instead of exiting, on a redirected thread */
+	static final class FatalError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		FatalError( String message ) {
+			super( message );
+		}
+	}
+
+	/** the sink of each thread, or null */
+	private static final ThreadLocal <Sink> sink = new ThreadLocal <Sink> ();
+
+	/** Send the errors of the current thread to a sink; fatal errors
+	 *  then throw FatalError instead of exiting the application.
+	 *  @param s	the sink, or null to go back to <code>system.err</code>.
+	 */
+	static void redirect( Sink s ) {
+		sink.set( s );
+	}
+
 	/** Provide public read only access to the count of warnings.
          *  @return the count of the non-fatal warnings
 	 */
 	public static int count() {
-		return count;
+		final Sink s = sink.get();
+		return (s == null) ? count : s.count;
 	}
 
 	/** Warn of non fatal errors with a message on <code>system.err</code>
 	 *  @param message   the string to output as an error message.
 	 */
 	public static void warn( String message ) {
+		final Sink s = sink.get();
+		if (s != null) {
+			s.messages.append( "Warning: " ).append( message ).append( '\n' );
+			s.count = s.count + 1;
+			return;
+		}
 		System.err.println( "Warning: " + message );
 		count = count + 1;
 	}
 
+	/** Warn of non fatal errors found on some line of an input file
+	 *  @param line      the line number, counting from 1.
+	 *  @param message   the string to output as an error message.
+	 */
+	public static void warn( int line, String message ) {
+		warn( "line " + line + ": " + message );
+	}
+
 	/** Report fatal errors with a message on <code>system.err</code>
 	 *  and then exit the application.
 	 *  @param message   the string to output as an error message.
 	 */
 	public static void fatal( String message ) {
+		final Sink s = sink.get();
+		if (s != null) {
+			s.messages.append( "Fatal error: " ).append( message );
+			s.messages.append( '\n' );
+			throw new FatalError( message );
+		}
 		System.err.println( "Fatal error: " + message );
 		System.exit( -1 );
 	}